@@ -0,0 +1,136 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derives flush batch size and delay from observed update rate and cost of index update.
+ * <br/>
+ * Batch size is number of events which could be applied within pause budget.
+ * Delay is time required to accumulate such batch at current update rate,
+ * so during bulk loads background flushes take over before writers hit queue limit,
+ * while trickle updates are flushed using configured max delay.
+ * Without pause budget batch size is not limited by cost, it stays at configured queue size
+ * and only delay adapts to update rate.
+ * <br/>
+ * Observations come from flush scheduler and from whichever thread performs flush,
+ * so estimates are guarded by policy monitor. Flush threshold is read by writers on each update,
+ * it is published via volatile field instead.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class AdaptiveFlushPolicy {
+
+	private static final double ALPHA = 0.25;
+	private static final int MIN_SAMPLE = 16;
+	private static final int MIN_BATCH = 16;
+
+	private final int queueSizeLimit;
+	private final long pauseBudgetNs;
+	private final long maxDelayMs;
+	private final long minDelayMs;
+
+	// estimates are guarded by this
+	private double costPerEventNs = -1;
+	private double eventsPerMs = 0;
+
+	private long lastSequence;
+	private long lastSampleNs = System.nanoTime();
+
+	private volatile int flushThreshold;
+
+	/**
+	 * @param queueSizeLimit configured queue size, used until cost of update is known
+	 * @param pauseBudgetMs max time single index update may hold index, 0 - unlimited
+	 * @param maxDelayMs max delay before update is applied
+	 */
+	public AdaptiveFlushPolicy(int queueSizeLimit, int pauseBudgetMs, int maxDelayMs) {
+		this.queueSizeLimit = queueSizeLimit;
+		this.pauseBudgetNs = TimeUnit.MILLISECONDS.toNanos(pauseBudgetMs);
+		this.maxDelayMs = maxDelayMs;
+		this.minDelayMs = Math.max(1, maxDelayMs / 32);
+		this.flushThreshold = queueSizeLimit;
+	}
+
+	/**
+	 * Records observation of index update.
+	 */
+	public synchronized void recordApply(int events, long durationNs) {
+		if (events >= MIN_SAMPLE) {
+			double cost = ((double)durationNs) / events;
+			costPerEventNs = costPerEventNs < 0 ? cost : (ALPHA * cost + (1 - ALPHA) * costPerEventNs);
+			flushThreshold = calculateBatchSize(queueSizeLimit);
+		}
+	}
+
+	/**
+	 * Records value of update sequence counter, used to estimate update rate.
+	 */
+	public synchronized void recordSequence(long sequence) {
+		long now = System.nanoTime();
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(now - lastSampleNs);
+		if (elapsedMs > 0) {
+			double rate = ((double)(sequence - lastSequence)) / elapsedMs;
+			eventsPerMs = ALPHA * rate + (1 - ALPHA) * eventsPerMs;
+			lastSequence = sequence;
+			lastSampleNs = now;
+		}
+	}
+
+	/**
+	 * @return number of pending events which should trigger background flush
+	 */
+	public int getFlushThreshold() {
+		return flushThreshold;
+	}
+
+	/**
+	 * @return number of pending events at which writers should flush themselves
+	 */
+	public int getHardLimit() {
+		return 4 * flushThreshold;
+	}
+
+	/**
+	 * @return max number of events to be applied under single index lock acquisition
+	 */
+	public synchronized int getSliceSize() {
+		return pauseBudgetNs == 0 ? Integer.MAX_VALUE : calculateBatchSize(queueSizeLimit);
+	}
+
+	/**
+	 * @return delay in ms until next background flush
+	 */
+	public synchronized long getNextDelay() {
+		if (eventsPerMs <= 0) {
+			return maxDelayMs;
+		}
+		long delay = (long)(flushThreshold / eventsPerMs);
+		return Math.max(minDelayMs, Math.min(maxDelayMs, delay));
+	}
+
+	// should be called under policy monitor
+	private int calculateBatchSize(int defaultSize) {
+		if (costPerEventNs <= 0 || pauseBudgetNs == 0) {
+			// cost alone does not define batch size without pause budget
+			return defaultSize;
+		}
+		long size = (long)(pauseBudgetNs / costPerEventNs);
+		return (int)Math.max(MIN_BATCH, Math.min(16l * queueSizeLimit, size));
+	}
+}
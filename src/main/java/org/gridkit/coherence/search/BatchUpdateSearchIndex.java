@@ -0,0 +1,36 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+/**
+ * Optional SPI interface, which could be implemented by {@link PlugableSearchIndex}
+ * to receive change sets grouped by type of change.
+ * <br/>
+ * If plugin implements this interface, engine calls {@link #updateIndexBatch(Object, IndexUpdateBatch, IndexInvocationContext)}
+ * instead of {@link PlugableSearchIndex#updateIndexEntries(Object, java.util.Map, IndexInvocationContext)}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ *
+ * @param <I> type of index instance
+ */
+public interface BatchUpdateSearchIndex<I> {
+
+	/**
+	 * Applies change set to index. Batch is reused by engine once call returns.
+	 */
+	public void updateIndexBatch(I index, IndexUpdateBatch batch, IndexInvocationContext context);
+
+}
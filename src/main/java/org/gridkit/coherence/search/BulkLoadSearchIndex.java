@@ -0,0 +1,41 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search;
+
+import java.util.Map;
+
+/**
+ * Optional SPI interface, which could be implemented by {@link PlugableSearchIndex}
+ * to provide optimized initial population of index.
+ * <br/>
+ * If index is created for cache which already holds data, engine collects
+ * existing entries, extracts indexed attributes in parallel and
+ * passes them to plugin in single call (see {@link IndexEngineConfig#isBulkIndexBuildEnabled()}).
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ *
+ * @param <I> type of index instance
+ */
+public interface BulkLoadSearchIndex<I> {
+
+	/**
+	 * Populates newly created (empty) index instance.
+	 * @param documents map of key to extracted attribute ("document")
+	 */
+	public void loadIndexEntries(I index, Map<Object, Object> documents, IndexInvocationContext context);
+
+}
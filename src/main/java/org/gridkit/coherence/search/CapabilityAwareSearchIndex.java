@@ -0,0 +1,36 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+/**
+ * Optional SPI interface, which could be implemented by {@link PlugableSearchIndex}
+ * to declare which data it actually uses, so engine could skip unnecessary work
+ * (e.g. extraction of original values).
+ * <br/>
+ * Plugins not implementing this interface get <code>new IndexCapabilities()</code>,
+ * which is conservative.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface CapabilityAwareSearchIndex {
+
+	/**
+	 * Called once per index instance, right after {@link PlugableSearchIndex#configure(IndexEngineConfig)}.
+	 * @return capabilities of plugin
+	 */
+	public IndexCapabilities getCapabilities();
+
+}
@@ -35,6 +35,23 @@ public class DefaultIndexEngineConfig implements IndexEngineConfig, Serializable
 	private int indexUpdateDelay = 5000;
 	private boolean attributeIndexEnabled = false;
 	private boolean oldValueOnUpdateEnabled = false;
+	private int indexingThreadCount = 2;
+	private boolean indexingPoolPerService = false;
+	private boolean staleIndexQueryEnabled = false;
+	private int queryWaitTimeout = 0;
+	private boolean adaptiveFlushEnabled = false;
+	private int flushPauseBudget = 0;
+	private boolean partitionedIndexEnabled = false;
+	private boolean bulkIndexBuildEnabled = false;
+	private boolean backgroundIndexBuildEnabled = false;
+	private int bulkIndexBuildTimeout = 30000;
+	private boolean keyDictionaryEnabled = false;
+	private boolean jmxEnabled = false;
+	private String snapshotDirectory = null;
+	private int snapshotInterval = 0;
+	private int queryResultCacheSize = 0;
+	private boolean queryResultCacheFineInvalidation = false;
+	private int queryResultCacheKeyLimit = 1 << 20;
 	
 	public int getIndexUpdateQueueSizeLimit() {
 		return indexUpdateQueueSizeLimit;
@@ -71,6 +88,142 @@ public class DefaultIndexEngineConfig implements IndexEngineConfig, Serializable
 		this.oldValueOnUpdateEnabled = oldValueOnUpdateEnabled;
 	}
 
+	public int getIndexingThreadCount() {
+		return indexingThreadCount;
+	}
+
+	public void setIndexingThreadCount(int indexingThreadCount) {
+		this.indexingThreadCount = indexingThreadCount;
+	}
+
+	public boolean isIndexingPoolPerService() {
+		return indexingPoolPerService;
+	}
+
+	public void setIndexingPoolPerService(boolean indexingPoolPerService) {
+		this.indexingPoolPerService = indexingPoolPerService;
+	}
+
+	public boolean isStaleIndexQueryEnabled() {
+		return staleIndexQueryEnabled;
+	}
+
+	public void setStaleIndexQueryEnabled(boolean staleIndexQueryEnabled) {
+		this.staleIndexQueryEnabled = staleIndexQueryEnabled;
+	}
+
+	public int getQueryWaitTimeout() {
+		return queryWaitTimeout;
+	}
+
+	public void setQueryWaitTimeout(int queryWaitTimeout) {
+		this.queryWaitTimeout = queryWaitTimeout;
+	}
+
+	public boolean isAdaptiveFlushEnabled() {
+		return adaptiveFlushEnabled;
+	}
+
+	public void setAdaptiveFlushEnabled(boolean adaptiveFlushEnabled) {
+		this.adaptiveFlushEnabled = adaptiveFlushEnabled;
+	}
+
+	public int getFlushPauseBudget() {
+		return flushPauseBudget;
+	}
+
+	public void setFlushPauseBudget(int flushPauseBudget) {
+		this.flushPauseBudget = flushPauseBudget;
+	}
+
+	public boolean isPartitionedIndexEnabled() {
+		return partitionedIndexEnabled;
+	}
+
+	public void setPartitionedIndexEnabled(boolean partitionedIndexEnabled) {
+		this.partitionedIndexEnabled = partitionedIndexEnabled;
+	}
+
+	public boolean isBulkIndexBuildEnabled() {
+		return bulkIndexBuildEnabled;
+	}
+
+	public void setBulkIndexBuildEnabled(boolean bulkIndexBuildEnabled) {
+		this.bulkIndexBuildEnabled = bulkIndexBuildEnabled;
+	}
+
+	public boolean isBackgroundIndexBuildEnabled() {
+		return backgroundIndexBuildEnabled;
+	}
+
+	public void setBackgroundIndexBuildEnabled(boolean backgroundIndexBuildEnabled) {
+		this.backgroundIndexBuildEnabled = backgroundIndexBuildEnabled;
+	}
+
+	public int getBulkIndexBuildTimeout() {
+		return bulkIndexBuildTimeout;
+	}
+
+	public void setBulkIndexBuildTimeout(int bulkIndexBuildTimeout) {
+		this.bulkIndexBuildTimeout = bulkIndexBuildTimeout;
+	}
+
+	public boolean isKeyDictionaryEnabled() {
+		return keyDictionaryEnabled;
+	}
+
+	public void setKeyDictionaryEnabled(boolean keyDictionaryEnabled) {
+		this.keyDictionaryEnabled = keyDictionaryEnabled;
+	}
+
+	public boolean isJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	public String getSnapshotDirectory() {
+		return snapshotDirectory;
+	}
+
+	public void setSnapshotDirectory(String snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+	}
+
+	public int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	public void setSnapshotInterval(int snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	public int getQueryResultCacheSize() {
+		return queryResultCacheSize;
+	}
+
+	public void setQueryResultCacheSize(int queryResultCacheSize) {
+		this.queryResultCacheSize = queryResultCacheSize;
+	}
+
+	public boolean isQueryResultCacheFineInvalidation() {
+		return queryResultCacheFineInvalidation;
+	}
+
+	public void setQueryResultCacheFineInvalidation(boolean enabled) {
+		this.queryResultCacheFineInvalidation = enabled;
+	}
+
+	public int getQueryResultCacheKeyLimit() {
+		return queryResultCacheKeyLimit;
+	}
+
+	public void setQueryResultCacheKeyLimit(int limit) {
+		this.queryResultCacheKeyLimit = limit;
+	}
+
 	@Override
 	public void readExternal(PofReader in) throws IOException {
 		int i = 1;
@@ -78,6 +231,23 @@ public class DefaultIndexEngineConfig implements IndexEngineConfig, Serializable
 		oldValueOnUpdateEnabled = in.readBoolean(i++);
 		indexUpdateDelay = in.readInt(i++);
 		indexUpdateQueueSizeLimit = in.readInt(i++);
+		indexingThreadCount = in.readInt(i++);
+		indexingPoolPerService = in.readBoolean(i++);
+		staleIndexQueryEnabled = in.readBoolean(i++);
+		queryWaitTimeout = in.readInt(i++);
+		adaptiveFlushEnabled = in.readBoolean(i++);
+		flushPauseBudget = in.readInt(i++);
+		partitionedIndexEnabled = in.readBoolean(i++);
+		bulkIndexBuildEnabled = in.readBoolean(i++);
+		backgroundIndexBuildEnabled = in.readBoolean(i++);
+		keyDictionaryEnabled = in.readBoolean(i++);
+		jmxEnabled = in.readBoolean(i++);
+		snapshotDirectory = in.readString(i++);
+		snapshotInterval = in.readInt(i++);
+		queryResultCacheSize = in.readInt(i++);
+		queryResultCacheFineInvalidation = in.readBoolean(i++);
+		queryResultCacheKeyLimit = in.readInt(i++);
+		bulkIndexBuildTimeout = in.readInt(i++);
 	}
 
 	@Override
@@ -87,5 +257,22 @@ public class DefaultIndexEngineConfig implements IndexEngineConfig, Serializable
 		out.writeBoolean(i++, oldValueOnUpdateEnabled);
 		out.writeInt(i++, indexUpdateDelay);
 		out.writeInt(i++, indexUpdateQueueSizeLimit);
+		out.writeInt(i++, indexingThreadCount);
+		out.writeBoolean(i++, indexingPoolPerService);
+		out.writeBoolean(i++, staleIndexQueryEnabled);
+		out.writeInt(i++, queryWaitTimeout);
+		out.writeBoolean(i++, adaptiveFlushEnabled);
+		out.writeInt(i++, flushPauseBudget);
+		out.writeBoolean(i++, partitionedIndexEnabled);
+		out.writeBoolean(i++, bulkIndexBuildEnabled);
+		out.writeBoolean(i++, backgroundIndexBuildEnabled);
+		out.writeBoolean(i++, keyDictionaryEnabled);
+		out.writeBoolean(i++, jmxEnabled);
+		out.writeString(i++, snapshotDirectory);
+		out.writeInt(i++, snapshotInterval);
+		out.writeInt(i++, queryResultCacheSize);
+		out.writeBoolean(i++, queryResultCacheFineInvalidation);
+		out.writeInt(i++, queryResultCacheKeyLimit);
+		out.writeInt(i++, bulkIndexBuildTimeout);
 	}
 }
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search;
+
+import java.io.Serializable;
+
+/**
+ * Describes which data and features index plugin actually uses
+ * (see {@link CapabilityAwareSearchIndex}).
+ * Engine uses it to skip work plugin would not use, regardless of
+ * {@link IndexEngineConfig} options.
+ * <br/>
+ * Default capabilities are conservative, i.e. engine provides everything
+ * it was configured to.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class IndexCapabilities implements Serializable {
+
+	private static final long serialVersionUID = 20111201L;
+
+	private boolean originalValueRequired = true;
+	private boolean deletedValueRequired = true;
+	private boolean bulkUpdateSupported = true;
+	private boolean keyDictionaryRequired = false;
+	private boolean exactResults = false;
+
+	/**
+	 * @return <code>true</code> if plugin reads {@link IndexUpdateEvent#getOriginalValue()} of update events
+	 */
+	public boolean isOriginalValueRequired() {
+		return originalValueRequired;
+	}
+
+	public IndexCapabilities setOriginalValueRequired(boolean required) {
+		this.originalValueRequired = required;
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if plugin reads value of removed entry ({@link IndexUpdateEvent#getOriginalValue()}) of delete events
+	 */
+	public boolean isDeletedValueRequired() {
+		return deletedValueRequired;
+	}
+
+	public IndexCapabilities setDeletedValueRequired(boolean required) {
+		this.deletedValueRequired = required;
+		return this;
+	}
+
+	/**
+	 * Bulk build is never enabled by plugin, it only permits {@link IndexEngineConfig#isBulkIndexBuildEnabled()}
+	 * to take effect. Bulk build covers only initial population of index.
+	 * @return <code>false</code> if plugin cannot handle large change sets and existing content
+	 *         of cache should be indexed entry by entry
+	 */
+	public boolean isBulkUpdateSupported() {
+		return bulkUpdateSupported;
+	}
+
+	public IndexCapabilities setBulkUpdateSupported(boolean supported) {
+		this.bulkUpdateSupported = supported;
+		return this;
+	}
+
+	/**
+	 * If required, engine maintains {@link KeyDictionary} for plugin regardless of
+	 * {@link IndexEngineConfig#isKeyDictionaryEnabled()}, invocation context implements {@link KeyDictionaryContext}.
+	 * @return <code>true</code> if plugin refers documents by dictionary IDs
+	 */
+	public boolean isKeyDictionaryRequired() {
+		return keyDictionaryRequired;
+	}
+
+	public IndexCapabilities setKeyDictionaryRequired(boolean required) {
+		this.keyDictionaryRequired = required;
+		return this;
+	}
+
+	/**
+	 * If set, engine never asks cache service to evaluate entries selected by index,
+	 * regardless of value returned by {@link PlugableSearchIndex#applyIndex(Object, Object, java.util.Set, IndexInvocationContext)}.
+	 * Entries with pending updates (see {@link IndexEngineConfig#isStaleIndexQueryEnabled()}) are evaluated by engine anyway.
+	 * @return <code>true</code> if index lookup never requires post filtering
+	 */
+	public boolean isExactResults() {
+		return exactResults;
+	}
+
+	public IndexCapabilities setExactResults(boolean exact) {
+		this.exactResults = exact;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "IndexCapabilities[originalValue=" + originalValueRequired
+				+ ", deletedValue=" + deletedValueRequired
+				+ ", bulkUpdate=" + bulkUpdateSupported
+				+ ", keyDictionary=" + keyDictionaryRequired
+				+ ", exact=" + exactResults + "]";
+	}
+}
@@ -68,5 +68,240 @@ public interface IndexEngineConfig {
 	 * Set oldValueOnUpdate option. See {@link #isOldValueOnUpdateEnabled()}
 	 */
 	public void setOldValueOnUpdateEnabled(boolean enabled);
-	
+
+	/**
+	 * Periodic flushes of asynchronous updates are executed by shared indexing pool (see {@link IndexingScheduler}).
+	 * Flushes of different indexes could run in parallel if pool has more than one thread.
+	 * @return number of threads in indexing pool
+	 */
+	public int getIndexingThreadCount();
+
+	/**
+	 * Sets number of threads in indexing pool. See {@link #getIndexingThreadCount()}
+	 */
+	public void setIndexingThreadCount(int threadCount);
+
+	/**
+	 * @return <code>true</code> if each cache service uses own indexing pool, otherwise pool is shared by whole node
+	 */
+	public boolean isIndexingPoolPerService();
+
+	/**
+	 * Set indexingPoolPerService option. See {@link #isIndexingPoolPerService()}
+	 */
+	public void setIndexingPoolPerService(boolean perService);
+
+	/**
+	 * By default, pending asynchronous updates are flushed before each query
+	 * (query may relax this, see {@link SearchFactory#createFilter(Object, int, long)}).
+	 * In stale index query mode, queries use index as is. Keys with pending updates
+	 * are excluded from index lookup and evaluated against their latest values,
+	 * so results are still exact, but queries do not pay for flushing.
+	 * Query limit (see {@link SearchFactory#createLimitFilter(Object, int, int)}) is applied to combined result,
+	 * index lookup itself is not limited in this mode.
+	 * @return <code>true</code> if queries should not flush pending updates
+	 */
+	public boolean isStaleIndexQueryEnabled();
+
+	/**
+	 * Set staleIndexQuery option. See {@link #isStaleIndexQueryEnabled()}
+	 */
+	public void setStaleIndexQueryEnabled(boolean enabled);
+
+	/**
+	 * In stale index query mode, query may wait for background flush to apply
+	 * updates made before query has started. If updates are not applied
+	 * within timeout, query proceeds with evaluating pending keys directly.
+	 * @return max time in ms query waits for index to catch up. 0 - do not wait.
+	 */
+	public int getQueryWaitTimeout();
+
+	/**
+	 * Sets queryWaitTimeout option. See {@link #getQueryWaitTimeout()}
+	 */
+	public void setQueryWaitTimeout(int timeoutMs);
+
+	/**
+	 * In adaptive mode, flush batch size and delay are derived from observed
+	 * update rate and cost of index update. {@link #getIndexUpdateQueueSizeLimit()}
+	 * is used as initial batch size and {@link #getIndexUpdateDelay()} as max delay.
+	 * Batch size adapts only if {@link #getFlushPauseBudget()} is set, otherwise only delay is adaptive.
+	 * @return <code>true</code> if adaptive flush is enabled
+	 */
+	public boolean isAdaptiveFlushEnabled();
+
+	/**
+	 * Set adaptiveFlush option. See {@link #isAdaptiveFlushEnabled()}
+	 */
+	public void setAdaptiveFlushEnabled(boolean enabled);
+
+	/**
+	 * Large flushes are split into slices, index is released between slices,
+	 * so queries are not blocked for whole flush duration.
+	 * @return max time in ms single slice of update may hold index. 0 - do not split flushes.
+	 */
+	public int getFlushPauseBudget();
+
+	/**
+	 * Sets flushPauseBudget option. See {@link #getFlushPauseBudget()}
+	 */
+	public void setFlushPauseBudget(int pauseMs);
+
+	/**
+	 * In partitioned mode, engine keeps separate index instance per cache partition.
+	 * Queries limited to some partitions touch only their indexes, and index of
+	 * partition which has left the node is dropped as a whole.
+	 * This option has effect only for partitioned caches.
+	 * @return <code>true</code> if index should be split by partitions
+	 */
+	public boolean isPartitionedIndexEnabled();
+
+	/**
+	 * Set partitionedIndex option. See {@link #isPartitionedIndexEnabled()}
+	 */
+	public void setPartitionedIndexEnabled(boolean enabled);
+
+	/**
+	 * If enabled, entries inserted right after index creation (i.e. existing content of cache)
+	 * are collected and indexed in one batch. Later updates are not affected.
+	 * Plugin may provide optimized initial population by implementing {@link BulkLoadSearchIndex}
+	 * or veto bulk build via {@link IndexCapabilities#isBulkUpdateSupported()}.
+	 * @return <code>true</code> if bulk index build is enabled
+	 */
+	public boolean isBulkIndexBuildEnabled();
+
+	/**
+	 * Set bulkIndexBuild option. See {@link #isBulkIndexBuildEnabled()}
+	 */
+	public void setBulkIndexBuildEnabled(boolean enabled);
+
+	/**
+	 * Like bulk index build, but index is populated in background and index creation does not wait for it.
+	 * While index is being built, updates are buffered and queries are executed as if
+	 * there were no index (entries are evaluated one by one). Once buffered updates are applied,
+	 * engine switches to indexed execution.
+	 * @return <code>true</code> if background index build is enabled
+	 */
+	public boolean isBackgroundIndexBuildEnabled();
+
+	/**
+	 * Set backgroundIndexBuild option. See {@link #isBackgroundIndexBuildEnabled()}
+	 */
+	public void setBackgroundIndexBuildEnabled(boolean enabled);
+
+	/**
+	 * Bulk and background builds collect existing entries until end of initial population
+	 * is signaled by {@link SearchFactory#createIndex(com.tangosol.net.NamedCache)}.
+	 * If signal does not arrive (e.g. index was added bypassing {@link SearchFactory}),
+	 * index is built from collected entries after this timeout or on first query, whichever comes first.
+	 * @return timeout in milliseconds
+	 */
+	public int getBulkIndexBuildTimeout();
+
+	/**
+	 * Set bulkIndexBuildTimeout option. See {@link #getBulkIndexBuildTimeout()}
+	 */
+	public void setBulkIndexBuildTimeout(int timeout);
+
+	/**
+	 * If enabled, engine maintains {@link KeyDictionary} for each index instance,
+	 * so plugin could refer to documents by dense int IDs instead of keys.
+	 * Dictionary is available via {@link KeyDictionaryContext#getKeyDictionary()}.
+	 * Plugins relying on dictionary declare it via {@link IndexCapabilities#isKeyDictionaryRequired()},
+	 * so usually this option does not need to be set explicitly.
+	 * @return <code>true</code> if key dictionary should be maintained
+	 */
+	public boolean isKeyDictionaryEnabled();
+
+	/**
+	 * Set keyDictionary option. See {@link #isKeyDictionaryEnabled()}
+	 */
+	public void setKeyDictionaryEnabled(boolean enabled);
+
+	/**
+	 * If enabled, engine registers MBean with its statistics (see {@link SearchIndexStatsMBean})
+	 * in platform MBean server. Disabled by default.
+	 * @return <code>true</code> if JMX statistics are enabled
+	 */
+	public boolean isJmxEnabled();
+
+	/**
+	 * Set jmx option. See {@link #isJmxEnabled()}
+	 */
+	public void setJmxEnabled(boolean enabled);
+
+	/**
+	 * Local directory for index snapshots. If set, and plugin implements {@link PersistentSearchIndex},
+	 * engine saves index image there (see {@link #getSnapshotInterval()}) and
+	 * uses it to rebuild index on restart of storage node.
+	 * Snapshots are not used for partitioned indexes.
+	 * Each member writes its own file, identified by member name (or member ID if name is not configured,
+	 * such snapshot is reused only if member gets same ID after restart). Snapshot containing keys of partitions
+	 * not owned by member is discarded.
+	 * @return path to snapshot directory, <code>null</code> if snapshots are disabled
+	 */
+	public String getSnapshotDirectory();
+
+	/**
+	 * Set snapshotDirectory option. See {@link #getSnapshotDirectory()}
+	 */
+	public void setSnapshotDirectory(String path);
+
+	/**
+	 * Interval between periodic index snapshots. If 0, snapshots are written only
+	 * on explicit request (see {@link SearchIndexStatsMBean#writeSnapshot()}).
+	 * @return interval in milliseconds
+	 */
+	public int getSnapshotInterval();
+
+	/**
+	 * Set snapshotInterval option. See {@link #getSnapshotInterval()}
+	 */
+	public void setSnapshotInterval(int ms);
+
+	/**
+	 * Max number of query results cached by engine, 0 disables cache.
+	 * Results are cached for queries covering all indexed keys (e.g. plain <code>keySet(filter)</code>)
+	 * and are discarded by any index update, unless {@link #isQueryResultCacheFineInvalidation()} is enabled.
+	 * Query objects should implement <code>equals()</code> and <code>hashCode()</code> to be cacheable.
+	 * Memory used by cache is bounded by {@link #getQueryResultCacheKeyLimit()}.
+	 * <br/>
+	 * Engine needs to know which keys are indexed to tell if query covers all of them,
+	 * so enabling result cache also enables key dictionary (see {@link #isKeyDictionaryEnabled()}).
+	 * @return max number of cached results
+	 */
+	public int getQueryResultCacheSize();
+
+	/**
+	 * Set queryResultCacheSize option. See {@link #getQueryResultCacheSize()}
+	 */
+	public void setQueryResultCacheSize(int size);
+
+	/**
+	 * If enabled, cached query result is discarded only if updated entry could
+	 * change it (entry matches query or was part of result), checked
+	 * with {@link PlugableSearchIndex#evaluate(Object, Object)} for each cached query on each flush.
+	 * Flushes too large to be checked cheaply discard all cached results.
+	 * @return <code>true</code> if cached results should be checked against updates
+	 */
+	public boolean isQueryResultCacheFineInvalidation();
+
+	/**
+	 * Set queryResultCacheFineInvalidation option. See {@link #isQueryResultCacheFineInvalidation()}
+	 */
+	public void setQueryResultCacheFineInvalidation(boolean enabled);
+
+	/**
+	 * Max total number of keys held by cached query results, 0 means no limit.
+	 * Least recently used results are evicted once limit is exceeded,
+	 * result with more keys than limit is not cached.
+	 * @return max number of cached keys
+	 */
+	public int getQueryResultCacheKeyLimit();
+
+	/**
+	 * Set queryResultCacheKeyLimit option. See {@link #getQueryResultCacheKeyLimit()}
+	 */
+	public void setQueryResultCacheKeyLimit(int limit);
+
 }
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.tangosol.io.Serializer;
+import com.tangosol.util.Binary;
+import com.tangosol.util.ExternalizableHelper;
+
+/**
+ * Binary image of index (see {@link PersistentSearchIndex}).
+ * <br/>
+ * Image starts with engine section: header, key dictionary (keys in binary form)
+ * and fingerprint of indexed attribute for each document. Plugin section follows.
+ * Image is written to temporary file and renamed, so partially written snapshot
+ * never replaces previous one. Image is memory mapped for loading.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class IndexSnapshot {
+
+	private static final int MAGIC = 0x474B5349;
+	// version 2 fingerprints serialized form of non string attributes
+	private static final int VERSION = 2;
+
+	/** fingerprint of attribute which could not be serialized, such documents are always replayed */
+	static final long UNKNOWN_FINGERPRINT = Long.MIN_VALUE;
+
+	private static final long FNV_BASIS = 0xcbf29ce484222325l;
+	private static final long FNV_PRIME = 0x100000001b3l;
+
+	/** keys indexed by document ID, <code>null</code> for unused IDs */
+	Object[] keys;
+	long[] fingerprints;
+	/** plugin section */
+	ByteBuffer data;
+
+	/**
+	 * Members may share snapshot directory, so file name includes identity of member.
+	 */
+	static String fileName(String cacheName, String token, String member) {
+		StringBuilder sb = new StringBuilder();
+		for(char ch: (cacheName + "-" + token + "-" + member).toCharArray()) {
+			sb.append(Character.isLetterOrDigit(ch) || ch == '-' || ch == '_' ? ch : '_');
+		}
+		sb.append(".snapshot");
+		return sb.toString();
+	}
+
+	/**
+	 * Fingerprint of indexed attribute, used to detect documents changed since snapshot.
+	 * 64 bit FNV-1a of string or of serialized form of other values, <code>hashCode()</code>
+	 * collides too easily.
+	 * @param serializer cache serializer, <code>null</code> for default serialization
+	 * @return fingerprint or {@link #UNKNOWN_FINGERPRINT} if value could not be serialized
+	 */
+	static long fingerprint(Object value, Serializer serializer) {
+		if (value == null) {
+			return 0;
+		}
+		else if (value instanceof String) {
+			String text = (String) value;
+			long h = FNV_BASIS;
+			for(int i = 0; i != text.length(); ++i) {
+				h ^= text.charAt(i);
+				h *= FNV_PRIME;
+			}
+			return h;
+		}
+		else {
+			Binary bin;
+			try {
+				if (value instanceof Binary) {
+					bin = (Binary) value;
+				}
+				else {
+					bin = serializer == null ? ExternalizableHelper.toBinary(value) : ExternalizableHelper.toBinary(value, serializer);
+				}
+			}
+			catch(RuntimeException e) {
+				return UNKNOWN_FINGERPRINT;
+			}
+			long h = FNV_BASIS;
+			int len = bin.length();
+			for(int i = 0; i != len; ++i) {
+				h ^= bin.byteAt(i) & 0xFF;
+				h *= FNV_PRIME;
+			}
+			return h;
+		}
+	}
+
+	static <I> void write(File file, String token, KeyDictionary dictionary, long[] fingerprints, PersistentSearchIndex<I> psi, I index, IndexInvocationContext context) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create snapshot directory " + dir);
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, token);
+			int limit = dictionary.getIdLimit();
+			out.writeInt(limit);
+			for(int id = 0; id != limit; ++id) {
+				Object key = dictionary.getKey(id);
+				if (key == null) {
+					out.writeInt(-1);
+				}
+				else {
+					byte[] bytes = context.ensureBinaryKey(key).toByteArray();
+					out.writeInt(bytes.length);
+					out.write(bytes);
+					out.writeLong(fingerprints[id]);
+				}
+			}
+			psi.writeSnapshot(index, out, context);
+		}
+		finally {
+			out.close();
+		}
+		// rename over existing file is not atomic on all platforms
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace snapshot " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Cannot rename " + tmp + " to " + file);
+		}
+	}
+
+	static IndexSnapshot read(File file, String token) throws IOException {
+		ByteBuffer buf;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// mapping remains valid after channel is closed
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			raf.close();
+		}
+		try {
+			return read(buf, file, token);
+		}
+		catch(BufferUnderflowException e) {
+			throw new IOException("Snapshot " + file + " is truncated");
+		}
+	}
+
+	private static IndexSnapshot read(ByteBuffer buf, File file, String token) throws IOException {
+		if (buf.getInt() != MAGIC) {
+			throw new IOException("Not an index snapshot " + file);
+		}
+		if (buf.getInt() != VERSION) {
+			throw new IOException("Unsupported snapshot version " + file);
+		}
+		String stoken = readString(buf);
+		if (!stoken.equals(token)) {
+			throw new IOException("Snapshot " + file + " belongs to other index " + stoken);
+		}
+		IndexSnapshot snapshot = new IndexSnapshot();
+		int limit = buf.getInt();
+		if (limit < 0 || limit > buf.remaining() / 4) {
+			throw new IOException("Snapshot " + file + " is corrupted");
+		}
+		snapshot.keys = new Object[limit];
+		snapshot.fingerprints = new long[Math.max(16, limit)];
+		for(int id = 0; id != limit; ++id) {
+			int len = buf.getInt();
+			if (len > buf.remaining()) {
+				throw new IOException("Snapshot " + file + " is corrupted");
+			}
+			if (len >= 0) {
+				byte[] bytes = new byte[len];
+				buf.get(bytes);
+				snapshot.keys[id] = new Binary(bytes);
+				snapshot.fingerprints[id] = buf.getLong();
+			}
+		}
+		snapshot.data = buf.slice();
+		return snapshot;
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		out.writeInt(text.length());
+		out.writeChars(text);
+	}
+
+	private static String readString(ByteBuffer buf) throws IOException {
+		int len = buf.getInt();
+		if (len < 0 || len > buf.remaining() / 2) {
+			throw new IOException("Malformed string in snapshot");
+		}
+		char[] chars = new char[len];
+		for(int i = 0; i != len; ++i) {
+			chars[i] = buf.getChar();
+		}
+		return new String(chars);
+	}
+}
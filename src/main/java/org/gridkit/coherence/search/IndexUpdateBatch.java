@@ -0,0 +1,211 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.gridkit.coherence.search.IndexUpdateEvent.Type;
+
+/**
+ * Change set grouped into insert, update and delete segments
+ * (see {@link BatchUpdateSearchIndex}). Event types are relative to
+ * state of index before batch, i.e. inserted keys are not in index yet,
+ * updated and deleted ones are.
+ * <br/>
+ * If key dictionary is enabled ({@link IndexEngineConfig#isKeyDictionaryEnabled()}),
+ * each segment is sorted by document ID, otherwise order is unspecified.
+ * <br/>
+ * Batch is reused by engine and is not thread safe.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class IndexUpdateBatch {
+
+	private final Segment inserts = new Segment();
+	private final Segment updates = new Segment();
+	private final Segment deletes = new Segment();
+
+	/**
+	 * @return keys which are not present in index yet
+	 */
+	public Segment getInserts() {
+		return inserts;
+	}
+
+	/**
+	 * @return keys present in index, which have new values
+	 */
+	public Segment getUpdates() {
+		return updates;
+	}
+
+	/**
+	 * @return keys to be removed from index
+	 */
+	public Segment getDeletes() {
+		return deletes;
+	}
+
+	public int size() {
+		return inserts.size + updates.size + deletes.size;
+	}
+
+	void fill(Map<Object, IndexUpdateEvent> events, KeyDictionary dictionary) {
+		clear();
+		for(IndexUpdateEvent event: events.values()) {
+			Segment segment = segmentFor(event.getType());
+			if (segment != null) {
+				int docId = dictionary == null ? -1 : dictionary.getId(event.getKey());
+				segment.add(event.getKey(), docId, event.getValue(), event.getOriginalValue());
+			}
+		}
+		if (dictionary != null) {
+			inserts.sort();
+			updates.sort();
+			deletes.sort();
+		}
+	}
+
+	void clear() {
+		inserts.clear();
+		updates.clear();
+		deletes.clear();
+	}
+
+	private Segment segmentFor(Type type) {
+		switch(type) {
+			case INSERT: return inserts;
+			case UPDATE: return updates;
+			case DELETE: return deletes;
+			default: return null;
+		}
+	}
+
+	/**
+	 * Group of changes of same type.
+	 */
+	public static class Segment {
+
+		private Object[] keys = new Object[16];
+		private int[] docIds = new int[16];
+		private Object[] values = new Object[16];
+		private Object[] originalValues = new Object[16];
+		private int size;
+		// sort buffers, kept for reuse
+		private long[] order = new long[0];
+		private Object[] spareKeys = new Object[0];
+		private Object[] spareValues = new Object[0];
+		private Object[] spareOriginalValues = new Object[0];
+
+		public int size() {
+			return size;
+		}
+
+		public Object getKey(int n) {
+			return keys[n];
+		}
+
+		/**
+		 * @return document ID from {@link KeyDictionary} or -1 if dictionary is not enabled
+		 */
+		public int getDocId(int n) {
+			return docIds[n];
+		}
+
+		/**
+		 * @return extracted attribute (document), <code>null</code> for deletes
+		 */
+		public Object getValue(int n) {
+			return values[n];
+		}
+
+		/**
+		 * @return attribute value before change, if engine has provided it
+		 */
+		public Object getOriginalValue(int n) {
+			return originalValues[n];
+		}
+
+		void add(Object key, int docId, Object value, Object originalValue) {
+			if (size == keys.length) {
+				int capacity = 2 * size;
+				keys = Arrays.copyOf(keys, capacity);
+				docIds = Arrays.copyOf(docIds, capacity);
+				values = Arrays.copyOf(values, capacity);
+				originalValues = Arrays.copyOf(originalValues, capacity);
+			}
+			keys[size] = key;
+			docIds[size] = docId;
+			values[size] = value;
+			originalValues[size] = originalValue;
+			++size;
+		}
+
+		/**
+		 * Sorts segment by document ID.
+		 */
+		void sort() {
+			boolean sorted = true;
+			for(int i = 1; i < size; ++i) {
+				if (docIds[i - 1] > docIds[i]) {
+					sorted = false;
+					break;
+				}
+			}
+			if (sorted) {
+				return;
+			}
+			if (order.length < keys.length) {
+				order = new long[keys.length];
+				spareKeys = new Object[keys.length];
+				spareValues = new Object[keys.length];
+				spareOriginalValues = new Object[keys.length];
+			}
+			// IDs are non negative, so (ID, position) pairs are sorted as primitives
+			for(int i = 0; i != size; ++i) {
+				order[i] = (((long)docIds[i]) << 32) | i;
+			}
+			Arrays.sort(order, 0, size);
+			for(int i = 0; i != size; ++i) {
+				int n = (int)order[i];
+				spareKeys[i] = keys[n];
+				docIds[i] = (int)(order[i] >>> 32);
+				spareValues[i] = values[n];
+				spareOriginalValues[i] = originalValues[n];
+			}
+			Arrays.fill(keys, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+			Arrays.fill(originalValues, 0, size, null);
+			Object[] t = keys;
+			keys = spareKeys;
+			spareKeys = t;
+			t = values;
+			values = spareValues;
+			spareValues = t;
+			t = originalValues;
+			originalValues = spareOriginalValues;
+			spareOriginalValues = t;
+		}
+
+		void clear() {
+			Arrays.fill(keys, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+			Arrays.fill(originalValues, 0, size, null);
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,478 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.gridkit.coherence.search.IndexUpdateEvent.Type;
+
+/**
+ * Coalescing buffer for pending index updates.
+ * Events are spread across lock stripes by key hash, so concurrent
+ * writers only contend if their keys fall into same stripe.
+ * Events for same key are merged using {@link IndexUpdateEvent#merge(IndexUpdateEvent)}.
+ * <br/>
+ * Buffer is double buffered, {@link #drain()} swaps active and retired
+ * tables of each stripe, so writers could continue while retired events
+ * are being applied to index.
+ * <br/>
+ * Event objects and hash tables are reused after {@link #recycle()},
+ * so once tables have grown to working size, buffer does not allocate per update.
+ * Consequently, neither events nor entries of drained view should be retained
+ * after recycling. Until then, each entry of drained view is a distinct object.
+ * <br/>
+ * Each added event is assigned a sequence number. All events with sequence
+ * number below {@link #getRetiredWatermark()} are guaranteed to be drained.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class IndexUpdateBuffer {
+
+	private final Stripe[] stripes;
+	private final int mask;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong sequence = new AtomicLong();
+	private final Map<Object, IndexUpdateEvent> view = new BufferView();
+	private int retiredSize;
+	private long retiredWatermark;
+
+	public IndexUpdateBuffer() {
+		this(defaultConcurrency());
+	}
+
+	public IndexUpdateBuffer(int concurrency) {
+		int n = 1;
+		while(n < concurrency) {
+			n <<= 1;
+		}
+		stripes = new Stripe[n];
+		for(int i = 0; i != n; ++i) {
+			stripes[i] = new Stripe();
+		}
+		mask = n - 1;
+	}
+
+	static int defaultConcurrency() {
+		return Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Adds event to buffer, merging it with pending event for same key if any.
+	 * @return number of distinct keys in buffer after this operation
+	 */
+	public int add(IndexUpdateEvent event) {
+		return add(event.getKey(), event.getValue(), event.getOriginalValue(), event.getType());
+	}
+
+	/**
+	 * Same as {@link #add(IndexUpdateEvent)}, but event is created in place (or merged) inside of buffer.
+	 * @return number of distinct keys in buffer after this operation
+	 */
+	public int add(Object key, Object value, Object originalValue, Type type) {
+		Stripe stripe = stripeFor(key);
+		stripe.lock.lock();
+		try {
+			// sequence should be assigned under stripe lock, see drain()
+			long seq = sequence.incrementAndGet();
+			EventTable table = stripe.active;
+			table.ensureCapacity();
+			int slot = table.find(key);
+			IndexUpdateEvent old = table.slots[slot];
+			if (old != null && old.getKey() != null) {
+				old.merge(value, originalValue, type, seq);
+				++stripe.merged;
+				return size.get();
+			}
+			else {
+				table.claim(slot).reset(key, value, originalValue, type, seq);
+				return size.incrementAndGet();
+			}
+		}
+		finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of distinct keys in buffer
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return number of events merged with pending event for same key
+	 */
+	public long getMergedCount() {
+		long merged = 0;
+		for(Stripe stripe: stripes) {
+			merged += stripe.merged;
+		}
+		return merged;
+	}
+
+	/**
+	 * @return sequence number of last added event
+	 */
+	public long getLastSequence() {
+		return sequence.get();
+	}
+
+	/**
+	 * @return sequence number covered by last {@link #drain()}, all events up to this number has been drained
+	 */
+	public long getRetiredWatermark() {
+		return retiredWatermark;
+	}
+
+	/**
+	 * Moves all pending events to retired buffer.
+	 * Only one thread could drain buffer, and {@link #recycle()} should be called
+	 * before next {@link #drain()}.
+	 * @return read only {@link Map} view of retired events
+	 */
+	public Map<Object, IndexUpdateEvent> drain() {
+		// any event with number up to this has been put into its stripe already
+		long watermark = sequence.get();
+		int n = 0;
+		for(Stripe stripe: stripes) {
+			stripe.lock.lock();
+			try {
+				EventTable retired = stripe.active;
+				stripe.active = stripe.retired;
+				stripe.retired = retired;
+				n += retired.size;
+				size.addAndGet(-retired.size);
+			}
+			finally {
+				stripe.lock.unlock();
+			}
+		}
+		retiredSize = n;
+		retiredWatermark = watermark;
+		return view;
+	}
+
+	/**
+	 * Discards retired events, should be called by draining thread.
+	 * Event objects are kept for reuse.
+	 */
+	public void recycle() {
+		for(Stripe stripe: stripes) {
+			stripe.retired.clear();
+		}
+		retiredSize = 0;
+	}
+
+	/**
+	 * Returns retired events back to buffer, should be called by draining thread instead of {@link #recycle()}
+	 * if retired events could not be applied. Retired events precede active ones,
+	 * so pending event for same key is merged on top of retired one.
+	 * @param skip number of leading retired events (in order of drained view) which has been applied and should be discarded
+	 */
+	public void requeue(int skip) {
+		int n = 0;
+		for(Stripe stripe: stripes) {
+			stripe.lock.lock();
+			try {
+				EventTable retired = stripe.retired;
+				EventTable active = stripe.active;
+				for(int i = 0; i != retired.size; ++i) {
+					if (n++ < skip) {
+						continue;
+					}
+					IndexUpdateEvent event = retired.slots[retired.used[i]];
+					active.ensureCapacity();
+					int slot = active.find(event.getKey());
+					IndexUpdateEvent newer = active.slots[slot];
+					if (newer != null && newer.getKey() != null) {
+						event.merge(newer);
+						newer.reset(event.getKey(), event.getValue(), event.getOriginalValue(), event.getType(), event.getSequenceNumber());
+					}
+					else {
+						active.claim(slot).reset(event.getKey(), event.getValue(), event.getOriginalValue(), event.getType(), event.getSequenceNumber());
+						size.incrementAndGet();
+					}
+				}
+				retired.clear();
+			}
+			finally {
+				stripe.lock.unlock();
+			}
+		}
+		retiredSize = 0;
+	}
+
+	/**
+	 * Collects latest pending state for each key in buffer (both active and retired events).
+	 * Caller should ensure what retired events are not recycled concurrently.
+	 * Events are copied, so they are not affected by subsequent merges.
+	 * @param target map to be filled by latest event for each key
+	 */
+	public void collectPending(Map<Object, IndexUpdateEvent> target) {
+		for(Stripe stripe: stripes) {
+			stripe.lock.lock();
+			try {
+				copyTo(stripe.retired, target);
+				copyTo(stripe.active, target);
+			}
+			finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	private static void copyTo(EventTable table, Map<Object, IndexUpdateEvent> target) {
+		for(int i = 0; i != table.size; ++i) {
+			IndexUpdateEvent event = table.slots[table.used[i]];
+			IndexUpdateEvent copy = new IndexUpdateEvent(event.getKey(), event.getValue(), event.getOriginalValue(), event.getType());
+			copy.setSequenceNumber(event.getSequenceNumber());
+			target.put(copy.getKey(), copy);
+		}
+	}
+
+	private Stripe stripeFor(Object key) {
+		return stripes[hash(key) & mask];
+	}
+
+	private static int hash(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		// spread bits, keys sharing lower bits of hash should not collide
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+
+	private static class Stripe {
+
+		final ReentrantLock lock = new ReentrantLock();
+		EventTable active = new EventTable();
+		EventTable retired = new EventTable();
+		// written under stripe lock, read without it for statistics
+		volatile long merged;
+
+	}
+
+	/**
+	 * Open addressing table of pooled events. Slot is free if it has no event
+	 * or event has no key. Entries are never removed one by one, only whole table
+	 * is cleared, so linear probing does not need tombstones.
+	 */
+	private static class EventTable {
+
+		// hash spreading uses lower bits for stripe selection, table uses upper ones
+		private static final int SHIFT = 6;
+
+		IndexUpdateEvent[] slots = new IndexUpdateEvent[16];
+		// view entries are pooled along with events, entry of slot always refers event of same slot
+		EventEntry[] entries = new EventEntry[16];
+		// occupied slot numbers, in order of insertion
+		int[] used = new int[8];
+		int size;
+
+		/**
+		 * @return slot occupied by key, or free slot where key should be placed
+		 */
+		int find(Object key) {
+			int m = slots.length - 1;
+			int slot = (hash(key) >>> SHIFT) & m;
+			while(true) {
+				IndexUpdateEvent event = slots[slot];
+				if (event == null || event.getKey() == null || event.getKey().equals(key)) {
+					return slot;
+				}
+				slot = (slot + 1) & m;
+			}
+		}
+
+		IndexUpdateEvent get(Object key) {
+			IndexUpdateEvent event = slots[find(key)];
+			return event == null || event.getKey() == null ? null : event;
+		}
+
+		/**
+		 * Makes sure what one more key could be added, should be called before {@link #find(Object)}.
+		 */
+		void ensureCapacity() {
+			if (2 * (size + 1) > slots.length) {
+				IndexUpdateEvent[] oslots = slots;
+				EventEntry[] oentries = entries;
+				int[] oused = used;
+				slots = new IndexUpdateEvent[2 * oslots.length];
+				entries = new EventEntry[2 * oslots.length];
+				used = new int[oslots.length];
+				int n = size;
+				size = 0;
+				for(int i = 0; i != n; ++i) {
+					IndexUpdateEvent event = oslots[oused[i]];
+					int slot = find(event.getKey());
+					slots[slot] = event;
+					entries[slot] = oentries[oused[i]];
+					used[size++] = slot;
+				}
+			}
+		}
+
+		/**
+		 * Occupies free slot found by {@link #find(Object)}.
+		 * @return pooled event, should be reset by caller
+		 */
+		IndexUpdateEvent claim(int slot) {
+			IndexUpdateEvent event = slots[slot];
+			if (event == null) {
+				event = new IndexUpdateEvent(null, null, null, null);
+				slots[slot] = event;
+				entries[slot] = new EventEntry(event);
+			}
+			used[size++] = slot;
+			return event;
+		}
+
+		void clear() {
+			for(int i = 0; i != size; ++i) {
+				slots[used[i]].clear();
+			}
+			size = 0;
+		}
+	}
+
+	private class BufferView extends AbstractMap<Object, IndexUpdateEvent> {
+
+		private final Set<Entry<Object, IndexUpdateEvent>> entrySet = new AbstractSet<Entry<Object,IndexUpdateEvent>>() {
+
+			@Override
+			public Iterator<Entry<Object, IndexUpdateEvent>> iterator() {
+				return new ViewIterator();
+			}
+
+			@Override
+			public int size() {
+				return retiredSize;
+			}
+		};
+
+		@Override
+		public IndexUpdateEvent get(Object key) {
+			return stripeFor(key).retired.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public int size() {
+			return retiredSize;
+		}
+
+		@Override
+		public Set<Entry<Object, IndexUpdateEvent>> entrySet() {
+			return entrySet;
+		}
+	}
+
+	/**
+	 * Entry of drained view. {@link IndexUpdateEvent} is an entry itself,
+	 * but its value is attribute value, not event.
+	 */
+	private static class EventEntry implements Map.Entry<Object, IndexUpdateEvent> {
+
+		private final IndexUpdateEvent event;
+
+		EventEntry(IndexUpdateEvent event) {
+			this.event = event;
+		}
+
+		@Override
+		public Object getKey() {
+			return event.getKey();
+		}
+
+		@Override
+		public IndexUpdateEvent getValue() {
+			return event;
+		}
+
+		@Override
+		public IndexUpdateEvent setValue(IndexUpdateEvent value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Map.Entry) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) obj;
+				Object key = event.getKey();
+				return (key == null ? e.getKey() == null : key.equals(e.getKey())) && event == e.getValue();
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			Object key = event.getKey();
+			return (key == null ? 0 : key.hashCode()) ^ System.identityHashCode(event);
+		}
+
+		@Override
+		public String toString() {
+			return event.getKey() + "=" + event.getType();
+		}
+	}
+
+	/**
+	 * Iterates retired events.
+	 */
+	private class ViewIterator implements Iterator<Map.Entry<Object, IndexUpdateEvent>> {
+
+		private int stripe = 0;
+		private int pos = 0;
+
+		@Override
+		public boolean hasNext() {
+			while(pos >= stripes[stripe].retired.size) {
+				if (stripe + 1 >= stripes.length) {
+					return false;
+				}
+				++stripe;
+				pos = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public Map.Entry<Object, IndexUpdateEvent> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			EventTable table = stripes[stripe].retired;
+			return table.entries[table.used[pos++]];
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -34,6 +34,7 @@ public class IndexUpdateEvent implements Map.Entry<Object, Object> {
 	private Object value;
 	private Object originalValue;
 	private Type type;
+	private long sequenceNumber;
 	
 	public IndexUpdateEvent(Object key, Object value, Object originalValue,	Type type) {
 		this.key = key;
@@ -58,43 +59,77 @@ public class IndexUpdateEvent implements Map.Entry<Object, Object> {
 		return type;
 	}
 
+	/**
+	 * @return sequence number of latest update merged into this event, assigned when event is enqueued
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
 	@Override
 	public Object setValue(Object value) {
 		throw new UnsupportedOperationException();
 	}
 
 	public void merge(IndexUpdateEvent event) {
+		merge(event.value, event.originalValue, event.type, event.sequenceNumber);
+	}
+
+	void merge(Object newValue, Object newOriginalValue, Type newType, long sequence) {
+		sequenceNumber = Math.max(sequenceNumber, sequence);
 		switch (type) {
 			case NOPE:
-				this.type = event.type;
-				this.value = event.value;
-				this.originalValue = event.originalValue;
+				this.type = newType;
+				this.value = newValue;
+				this.originalValue = newOriginalValue;
 				break;
 			case INSERT:
-				if (event.type == Type.DELETE) {
+				if (newType == Type.DELETE) {
 					this.type = Type.NOPE;
 					this.value = null;
 					this.originalValue = null;
 				}
 				else {
-					this.value = event.value;
+					this.value = newValue;
 				}
 				break;
 			case UPDATE:
-				if (event.type == Type.DELETE) {
+				if (newType == Type.DELETE) {
 					this.type = Type.DELETE;
 					this.value = null;
 				}
 				else {
-					this.value = event.value;
+					this.value = newValue;
 				}
 				break;
 			case DELETE:
-				if (event.type == Type.INSERT) {
+				if (newType == Type.INSERT) {
 					this.type = Type.UPDATE;
-					this.value = event.value;
+					this.value = newValue;
 				}
 				break;
 		}		
 	}
+
+	/**
+	 * Reinitializes pooled event, see {@link IndexUpdateBuffer}.
+	 */
+	void reset(Object key, Object value, Object originalValue, Type type, long sequence) {
+		this.key = key;
+		this.value = value;
+		this.originalValue = originalValue;
+		this.type = type;
+		this.sequenceNumber = sequence;
+	}
+
+	/**
+	 * Releases references, so pooled event would not keep garbage reachable.
+	 */
+	void clear() {
+		reset(null, null, null, null, 0);
+	}
 }
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of thread pools used for background index maintenance.
+ * Pools are shared by name, typically there is one pool per node
+ * or one pool per cache service (see {@link IndexEngineConfig#isIndexingPoolPerService()}).
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class IndexingScheduler {
+
+	public static final String NODE_POOL = "node";
+	public static final String BULK_LOAD_POOL = "bulk-load";
+
+	private static final Map<String, ScheduledThreadPoolExecutor> POOLS = new HashMap<String, ScheduledThreadPoolExecutor>();
+
+	/**
+	 * Returns named indexing pool, creating it if necessary.
+	 * If pool already exists it will be enlarged to requested thread count.
+	 */
+	public static synchronized ScheduledExecutorService getPool(String name, int threadCount) {
+		int threads = Math.max(1, threadCount);
+		ScheduledThreadPoolExecutor pool = POOLS.get(name);
+		if (pool == null) {
+			pool = new ScheduledThreadPoolExecutor(threads, new IndexingThreadFactory(name));
+			POOLS.put(name, pool);
+		}
+		else if (pool.getCorePoolSize() < threads) {
+			pool.setCorePoolSize(threads);
+		}
+		return pool;
+	}
+
+	/**
+	 * Registers custom executor under provided name, it will be used by engines referring that pool.
+	 */
+	public static synchronized void registerPool(String name, ScheduledThreadPoolExecutor pool) {
+		POOLS.put(name, pool);
+	}
+
+	private static class IndexingThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		public IndexingThreadFactory(String poolName) {
+			this.prefix = "IndexFlush[" + poolName + "]-";
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, prefix + counter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search;
+
+/**
+ * Maps index keys to dense integer document IDs.
+ * <br/>
+ * Dictionary is maintained by engine, ID is assigned to key before plugin
+ * receives its insert, and released after plugin has processed its delete.
+ * Released IDs are reused, so IDs remain dense and could be used as array indexes.
+ * <br/>
+ * Dictionary is not thread safe, plugins may use it only
+ * inside of {@link PlugableSearchIndex} calls.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class KeyDictionary {
+
+	private static final Object TOMBSTONE = new Object();
+
+	// open addressing hash table key -> id
+	private Object[] table = new Object[16];
+	private int[] tableIds = new int[16];
+	private int used;
+
+	// id -> key
+	private Object[] keys = new Object[16];
+	private int[] freeIds = new int[16];
+	private int freeCount;
+	private int idLimit;
+	private int size;
+
+	/**
+	 * @return ID of key or -1 if key is unknown
+	 */
+	public int getId(Object key) {
+		int slot = find(key);
+		return slot < 0 ? -1 : tableIds[slot];
+	}
+
+	/**
+	 * @return key for ID or <code>null</code> if ID is not in use
+	 */
+	public Object getKey(int id) {
+		return id < 0 || id >= idLimit ? null : keys[id];
+	}
+
+	/**
+	 * @return number of keys in dictionary
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return all IDs in use are below this limit
+	 */
+	public int getIdLimit() {
+		return idLimit;
+	}
+
+	/**
+	 * Restores dictionary from snapshot.
+	 * @param keysById keys indexed by ID, <code>null</code> for unused IDs
+	 */
+	static KeyDictionary restore(Object[] keysById) {
+		KeyDictionary dictionary = new KeyDictionary();
+		int limit = keysById.length;
+		dictionary.keys = new Object[Math.max(16, limit)];
+		dictionary.idLimit = limit;
+		// free IDs are reused from the end of list, so keep lower IDs on top
+		for(int id = limit - 1; id >= 0; --id) {
+			Object key = keysById[id];
+			if (key == null) {
+				if (dictionary.freeCount == dictionary.freeIds.length) {
+					int[] nfree = new int[2 * dictionary.freeIds.length];
+					System.arraycopy(dictionary.freeIds, 0, nfree, 0, dictionary.freeCount);
+					dictionary.freeIds = nfree;
+				}
+				dictionary.freeIds[dictionary.freeCount++] = id;
+			}
+			else {
+				dictionary.put(key, id);
+			}
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Assigns ID to key, if it has no ID yet.
+	 * @return ID of key
+	 */
+	int allocate(Object key) {
+		int id = getId(key);
+		if (id >= 0) {
+			return id;
+		}
+		if (freeCount > 0) {
+			id = freeIds[--freeCount];
+		}
+		else {
+			id = idLimit++;
+			if (id >= keys.length) {
+				Object[] nkeys = new Object[2 * keys.length];
+				System.arraycopy(keys, 0, nkeys, 0, keys.length);
+				keys = nkeys;
+			}
+		}
+		put(key, id);
+		return id;
+	}
+
+	private void put(Object key, int id) {
+		keys[id] = key;
+		if (2 * (used + 1) > table.length) {
+			rehash();
+		}
+		int slot = hash(key) & (table.length - 1);
+		while(table[slot] != null && table[slot] != TOMBSTONE) {
+			slot = (slot + 1) & (table.length - 1);
+		}
+		if (table[slot] == null) {
+			++used;
+		}
+		table[slot] = key;
+		tableIds[slot] = id;
+		++size;
+	}
+
+	/**
+	 * Removes key from dictionary, its ID could be reused.
+	 */
+	void release(Object key) {
+		int slot = find(key);
+		if (slot >= 0) {
+			int id = tableIds[slot];
+			table[slot] = TOMBSTONE;
+			keys[id] = null;
+			if (freeCount == freeIds.length) {
+				int[] nfree = new int[2 * freeIds.length];
+				System.arraycopy(freeIds, 0, nfree, 0, freeCount);
+				freeIds = nfree;
+			}
+			freeIds[freeCount++] = id;
+			--size;
+		}
+	}
+
+	private int find(Object key) {
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		while(true) {
+			Object k = table[slot];
+			if (k == null) {
+				return -1;
+			}
+			else if (k != TOMBSTONE && k.equals(key)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void rehash() {
+		int capacity = 16;
+		while(capacity < 4 * (size + 1)) {
+			capacity <<= 1;
+		}
+		Object[] otable = table;
+		int[] oids = tableIds;
+		table = new Object[capacity];
+		tableIds = new int[capacity];
+		used = 0;
+		for(int i = 0; i != otable.length; ++i) {
+			Object k = otable[i];
+			if (k != null && k != TOMBSTONE) {
+				int slot = hash(k) & (capacity - 1);
+				while(table[slot] != null) {
+					slot = (slot + 1) & (capacity - 1);
+				}
+				table[slot] = k;
+				tableIds[slot] = oids[i];
+				++used;
+			}
+		}
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+}
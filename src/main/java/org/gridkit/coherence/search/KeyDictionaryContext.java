@@ -0,0 +1,35 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+/**
+ * Invocation context of index with key dictionary.
+ * Dictionary is maintained if plugin has declared {@link IndexCapabilities#isKeyDictionaryRequired()}
+ * or {@link IndexEngineConfig#isKeyDictionaryEnabled()} is set.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface KeyDictionaryContext extends IndexInvocationContext {
+
+	/**
+	 * Returns key dictionary of index instance being invoked.
+	 * IDs are assigned before plugin receives insert/update of key
+	 * and released after plugin has received its delete.
+	 * @throws UnsupportedOperationException if key dictionary is not maintained
+	 */
+	public KeyDictionary getKeyDictionary();
+
+}
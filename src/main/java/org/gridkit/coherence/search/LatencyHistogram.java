@@ -0,0 +1,118 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with power of two buckets.
+ * Bucket <code>i</code> counts operations which took less than 2<sup>i</sup> ns
+ * and at least 2<sup>i-1</sup> ns. Like {@link StripedCounter}, each thread
+ * records into its own stripe.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class LatencyHistogram {
+
+	// 2^39 ns is ~9 minutes
+	public static final int BUCKETS = 40;
+	// buckets + total time, padded to cache line
+	private static final int ROW = 48;
+	private static final int TOTAL = BUCKETS;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public LatencyHistogram() {
+		this(StripedCounter.defaultStripes());
+	}
+
+	public LatencyHistogram(int stripes) {
+		int n = 1;
+		while(n < stripes) {
+			n <<= 1;
+		}
+		cells = new AtomicLongArray(n * ROW);
+		mask = n - 1;
+	}
+
+	public void record(long durationNs) {
+		int bucket = durationNs <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(durationNs));
+		int row = (StripedCounter.threadHash() & mask) * ROW;
+		cells.incrementAndGet(row + bucket);
+		cells.addAndGet(row + TOTAL, durationNs);
+	}
+
+	public long[] getBuckets() {
+		long[] buckets = new long[BUCKETS];
+		for(int row = 0; row < cells.length(); row += ROW) {
+			for(int i = 0; i != BUCKETS; ++i) {
+				buckets[i] += cells.get(row + i);
+			}
+		}
+		return buckets;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for(long n: getBuckets()) {
+			count += n;
+		}
+		return count;
+	}
+
+	public long getTotalNs() {
+		long total = 0;
+		for(int row = 0; row < cells.length(); row += ROW) {
+			total += cells.get(row + TOTAL);
+		}
+		return total;
+	}
+
+	public double getAverageNs() {
+		long count = getCount();
+		return count == 0 ? 0 : ((double)getTotalNs()) / count;
+	}
+
+	/**
+	 * @return upper bound of bucket containing requested percentile, 0 if there were no observations
+	 */
+	public long getPercentileNs(double percentile) {
+		long[] buckets = getBuckets();
+		long count = 0;
+		for(long n: buckets) {
+			count += n;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long threshold = (long)Math.ceil(count * percentile / 100d);
+		long seen = 0;
+		for(int i = 0; i != BUCKETS; ++i) {
+			seen += buckets[i];
+			if (seen >= threshold) {
+				return 1l << i;
+			}
+		}
+		return 1l << (BUCKETS - 1);
+	}
+
+	public void reset() {
+		for(int i = 0; i != cells.length(); ++i) {
+			cells.set(i, 0);
+		}
+	}
+}
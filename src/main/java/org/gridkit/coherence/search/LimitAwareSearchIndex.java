@@ -0,0 +1,45 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gridkit.coherence.search;
+
+import java.util.Set;
+
+/**
+ * Optional SPI interface, which could be implemented by {@link PlugableSearchIndex}
+ * to stop query early, if only limited number of results is required
+ * (see {@link SearchFactory#createFilter(Object, int)}).
+ * <br/>
+ * In partitioned mode limit is shared by sub-indexes, each sub-index
+ * receives number of matches still missing.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ *
+ * @param <I> type of index instance
+ * @param <Q> type of query object
+ */
+public interface LimitAwareSearchIndex<I, Q> {
+
+	/**
+	 * Same as {@link PlugableSearchIndex#applyIndex(Object, Object, Set, IndexInvocationContext)},
+	 * but if result is exact, plugin may retain only <code>limit</code> matching keys.
+	 * @return <code>true</code> if post filtering of results is required, in this case
+	 *         key set should contain all candidates regardless of limit
+	 */
+	public boolean applyIndex(I index, Q query, Set<Object> keySet, int limit, IndexInvocationContext context);
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Optional SPI interface, which could be implemented by {@link PlugableSearchIndex}
+ * to support index snapshots (see {@link IndexEngineConfig#getSnapshotDirectory()}).
+ * <br/>
+ * Engine persists key dictionary and document fingerprints itself, plugin is only
+ * responsible for its own structure. Documents should be referred by IDs from
+ * {@link KeyDictionary}, so key dictionary should be enabled.
+ * <br/>
+ * On restart, engine loads image and replays only entries which have been
+ * added, changed or removed since snapshot was taken.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ *
+ * @param <I> type of index instance
+ */
+public interface PersistentSearchIndex<I> {
+
+	/**
+	 * Writes compact binary image of index. Called under index read lock.
+	 */
+	public void writeSnapshot(I index, DataOutput out, IndexInvocationContext context) throws IOException;
+
+	/**
+	 * Populates newly created (empty) index instance from image written by {@link #writeSnapshot(Object, DataOutput, IndexInvocationContext)}.
+	 * @param image memory mapped image, positioned at start of plugin's data
+	 */
+	public void readSnapshot(I index, ByteBuffer image, IndexInvocationContext context) throws IOException;
+
+}
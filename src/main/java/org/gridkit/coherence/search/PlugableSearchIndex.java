@@ -52,9 +52,10 @@ public interface PlugableSearchIndex<I, IC, Q> {
      * @param config
      */
     public void configure(IndexEngineConfig config);
-        
+
     /**
      * Updates instance of index using change set map.
+     * Change set and event objects are reused by engine once call returns, so plugin should not keep references to them.
      */
     public void updateIndexEntries(I index, Map<Object, IndexUpdateEvent> events, IndexInvocationContext context);
     
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gridkit.coherence.search;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.gridkit.coherence.search.IndexUpdateEvent.Type;
+
+/**
+ * Bounded LRU cache of query results for single index engine (see {@link IndexEngineConfig#getQueryResultCacheSize()}).
+ * Cache is bounded both by number of results and by total number of cached keys
+ * (see {@link IndexEngineConfig#getQueryResultCacheKeyLimit()}), result larger than key limit is not cached at all.
+ * <br/>
+ * Each result is tagged with generation of index it was computed for, every index update
+ * advances generation, so results of older generations are never returned.
+ * With fine invalidation, results which could not be changed by update are retagged instead of being discarded,
+ * unless update is too large to be checked cheaply (see {@link #FINE_INVALIDATION_LIMIT}).
+ * <br/>
+ * Results are put and looked up under index read lock, generation is advanced
+ * under index write lock, so result could not be tagged by wrong generation.
+ * Cache itself is guarded by its own monitor.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class QueryResultCache<Q> {
+
+	// max number of query evaluations per flush for fine invalidation,
+	// larger flushes simply discard all results, invalidation is done under index write lock
+	static final int FINE_INVALIDATION_LIMIT = 1 << 16;
+
+	private final PlugableSearchIndex<?, ?, Q> psi;
+	private final boolean fineInvalidation;
+	private final int capacity;
+	private final int keyLimit;
+	// access ordered, eldest entry is least recently used
+	private final Map<Q, CachedResult> results = new LinkedHashMap<Q, CachedResult>(16, 0.75f, true);
+	// total number of keys in cached results
+	private long keyCount;
+	private long generation;
+
+	/**
+	 * @param keyLimit max total number of keys in cached results, 0 for no limit
+	 */
+	public QueryResultCache(PlugableSearchIndex<?, ?, Q> psi, int capacity, int keyLimit, boolean fineInvalidation) {
+		this.psi = psi;
+		this.capacity = capacity;
+		this.keyLimit = keyLimit <= 0 ? Integer.MAX_VALUE : keyLimit;
+		this.fineInvalidation = fineInvalidation;
+	}
+
+	/**
+	 * @return result computed for current index generation or <code>null</code>
+	 */
+	public synchronized CachedResult get(Q query) {
+		CachedResult result = results.get(query);
+		if (result != null && result.generation != generation) {
+			remove(query);
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Caches result of query applied to all indexed keys.
+	 */
+	public synchronized void put(Q query, Set<Object> keys, boolean dirty) {
+		remove(query);
+		if (keys.size() > keyLimit) {
+			// would evict everything else
+			return;
+		}
+		results.put(query, new CachedResult(new HashSet<Object>(keys), dirty, generation));
+		keyCount += keys.size();
+		Iterator<CachedResult> it = results.values().iterator();
+		while(results.size() > capacity || keyCount > keyLimit) {
+			keyCount -= it.next().keys.size();
+			it.remove();
+		}
+	}
+
+	/**
+	 * @return number of cached results
+	 */
+	public synchronized int size() {
+		return results.size();
+	}
+
+	/**
+	 * @return total number of keys in cached results
+	 */
+	public synchronized long getKeyCount() {
+		return keyCount;
+	}
+
+	private void remove(Q query) {
+		CachedResult result = results.remove(query);
+		if (result != null) {
+			keyCount -= result.keys.size();
+		}
+	}
+
+	/**
+	 * Advances index generation, should be called under index write lock before update is applied.
+	 */
+	public synchronized void invalidate(Collection<IndexUpdateEvent> events) {
+		long prev = generation++;
+		if (!fineInvalidation || events == null || (long)events.size() * results.size() > FINE_INVALIDATION_LIMIT) {
+			results.clear();
+			keyCount = 0;
+			return;
+		}
+		for(Iterator<Map.Entry<Q, CachedResult>> it = results.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Q, CachedResult> entry = it.next();
+			CachedResult result = entry.getValue();
+			if (result.generation != prev || isAffected(entry.getKey(), result, events)) {
+				keyCount -= result.keys.size();
+				it.remove();
+			}
+			else {
+				result.generation = generation;
+			}
+		}
+	}
+
+	private boolean isAffected(Q query, CachedResult result, Collection<IndexUpdateEvent> events) {
+		for(IndexUpdateEvent event: events) {
+			if (result.keys.contains(event.getKey())) {
+				return true;
+			}
+			if (event.getType() != Type.DELETE && psi.evaluate(query, event.getValue())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static class CachedResult {
+
+		final Set<Object> keys;
+		final boolean dirty;
+		long generation;
+
+		CachedResult(Set<Object> keys, boolean dirty, long generation) {
+			this.keys = keys;
+			this.dirty = dirty;
+			this.generation = generation;
+		}
+	}
+}
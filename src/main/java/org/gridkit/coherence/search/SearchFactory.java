@@ -16,34 +16,60 @@
 
 package org.gridkit.coherence.search;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Collections;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.gridkit.coherence.search.IndexUpdateEvent.Type;
+import org.gridkit.coherence.search.QueryResultCache.CachedResult;
 
 import com.tangosol.io.Serializer;
 import com.tangosol.io.pof.PofReader;
 import com.tangosol.io.pof.PofWriter;
 import com.tangosol.io.pof.PortableObject;
 import com.tangosol.net.BackingMapContext;
+import com.tangosol.net.BackingMapManagerContext;
+import com.tangosol.net.CacheFactory;
+import com.tangosol.net.CacheService;
+import com.tangosol.net.Member;
 import com.tangosol.net.NamedCache;
+import com.tangosol.net.PartitionedService;
+import com.tangosol.net.partition.PartitionSet;
 import com.tangosol.util.Binary;
 import com.tangosol.util.BinaryEntry;
 import com.tangosol.util.ExternalizableHelper;
 import com.tangosol.util.Filter;
 import com.tangosol.util.MapIndex;
+import com.tangosol.util.MapTrigger;
 import com.tangosol.util.SimpleMapIndex;
 import com.tangosol.util.ValueExtractor;
 import com.tangosol.util.extractor.IndexAwareExtractor;
 import com.tangosol.util.filter.IndexAwareFilter;
+import com.tangosol.util.filter.LimitFilter;
+import com.tangosol.util.filter.PartitionedFilter;
 
 /**
  * Central class in Coherence-Search API. It is used as a factory to
@@ -91,6 +117,19 @@ public class SearchFactory<I, IC, Q> {
 	public void createIndex(NamedCache cache) {
 		SearchIndexExtractor<I, IC, Q> extractor = createConfiguredExtractor();
 		cache.addIndex(extractor, false, null);
+		if (engineConfig.isBulkIndexBuildEnabled() || engineConfig.isBackgroundIndexBuildEnabled() || engineConfig.getSnapshotDirectory() != null) {
+			// existing entries have been inserted by the time addIndex() returns,
+			// let each storage member know that initial population is over
+			cache.keySet(new PopulationCompleteFilter<I, Q>(createFilterExtractor()));
+		}
+	}
+
+	/**
+	 * Removes index created by {@link #createIndex(NamedCache)}.
+	 * @param cache
+	 */
+	public void removeIndex(NamedCache cache) {
+		cache.removeIndex(createConfiguredExtractor());
 	}
 	
 	protected SearchIndexExtractor<I, IC, Q> createConfiguredExtractor() {
@@ -109,10 +148,74 @@ public class SearchFactory<I, IC, Q> {
 	public Filter createFilter(Q query) {
 		return new QueryFilter<I, Q>(createFilterExtractor(), query);
 	}
+
+	/**
+	 * Create query based filter, which may return only <code>limit</code> matching keys from each storage node.
+	 * Limit takes effect only if filter is wrapped by {@link QueryLimitFilter} (see {@link #createLimitFilter(Object, int, int)}),
+	 * otherwise filter could be combined with other filters (e.g. by {@link com.tangosol.util.filter.AndFilter})
+	 * and truncated result would lose matching entries, so limit is ignored.
+	 * @param query search query, specific to plugin
+	 * @param limit number of keys required, 0 - unlimited
+	 * @return Coherence filter
+	 */
+	public Filter createFilter(Q query, int limit) {
+		return new QueryFilter<I, Q>(createFilterExtractor(), query, limit);
+	}
+
+	/**
+	 * Create query based filter with explicit consistency requirement. By default, query sees all updates
+	 * accepted by storage node before query has started, so pending asynchronous updates are applied first.
+	 * Query which could tolerate slightly outdated index may skip it.
+	 * @param query search query, specific to plugin
+	 * @param limit number of keys required, 0 - unlimited
+	 * @param requiredSequence {@link QueryFilter#LAST_UPDATE}, {@link QueryFilter#APPLIED_WATERMARK} or
+	 *        update sequence number query should see (see {@link SearchIndexWrapper#getLastUpdateSequence()}),
+	 *        sequence numbers are local to index of storage node, so they are useful only for code running there
+	 * @return Coherence filter
+	 */
+	public Filter createFilter(Q query, int limit, long requiredSequence) {
+		return new QueryFilter<I, Q>(createFilterExtractor(), query, limit, requiredSequence);
+	}
+
+	/**
+	 * Create filter for single page of query results. Index is asked only for keys enough to fill
+	 * pages up to requested one, so filter should be created again for each page
+	 * instead of using {@link LimitFilter#nextPage()}.
+	 * @param query search query, specific to plugin
+	 * @return Coherence filter
+	 */
+	public LimitFilter createLimitFilter(Q query, int pageSize, int page) {
+		LimitFilter filter = new QueryLimitFilter(new QueryFilter<I, Q>(createFilterExtractor(), query, pageSize * (page + 1)), pageSize);
+		filter.setPage(page);
+		return filter;
+	}
 	
 	public static interface SearchIndexWrapper<I> extends MapIndex, IndexInvocationContext {
 		
 		public <R> R callCoreIndex(SearchIndexCallable<I, R> callable);		
+
+		/**
+		 * @return sequence number of last update accepted by index engine
+		 */
+		public long getLastUpdateSequence();
+
+		/**
+		 * @return all updates up to this sequence number are applied to index
+		 */
+		public long getAppliedWatermark();
+
+		/**
+		 * Waits until all updates up to provided sequence number are applied to index.
+		 * Index flush is requested in background, calling thread does not apply updates itself.
+		 * @return <code>true</code> if watermark has been reached before timeout
+		 */
+		public boolean awaitWatermark(long sequence, long timeoutMs) throws InterruptedException;
+
+		/**
+		 * Writes image of index to snapshot directory (see {@link IndexEngineConfig#getSnapshotDirectory()}).
+		 * Index updates are blocked while image is being written.
+		 */
+		public void writeSnapshot() throws IOException;
 	}
 	
 	public static interface SearchIndexCallable<I, R> {
@@ -120,114 +223,690 @@ public class SearchFactory<I, IC, Q> {
 		public R execute(I index);		
 	}
 	
-	static class SearchIndexEngine<I,Q> implements MapIndex, IndexInvocationContext, SearchIndexWrapper<I> {
+	static class SearchIndexEngine<I,Q> implements MapIndex, KeyDictionaryContext, SearchIndexWrapper<I> {
+
+		// number of entries extracted by single task during bulk load
+		private static final int BULK_LOAD_CHUNK = 1024;
+		// delay before failed background build is retried
+		private static final long REBUILD_DELAY = 30000;
+		// max time direct access to core index waits for background build
+		private static final long INDEX_READY_TIMEOUT = 60000;
 
-		private static Timer INDEX_TIMER = new Timer("IndexFlushTimer", true);
-		
 		private PlugableSearchIndex<I, ?, Q> psi;
 		
 		private ValueExtractor attributeExtrator;
+		private IndexFactory<I> indexFactory;
 		private I coreIndex;
+		// partition sub-indexes, used instead of core index in partitioned mode
+		private Map<Integer, PartitionIndex<I>> partitionIndexes;
+		private BackingMapManagerContext partitionContext;
+		// key dictionary of core index, sub-indexes have their own
+		private KeyDictionary keyDictionary;
+		private boolean keyDictionaryEnabled = false;
+		// null if snapshots are disabled
+		private File snapshotFile;
+		private BackingMapManagerContext snapshotContext;
+		// fingerprints of indexed attributes by document ID, maintained only for snapshots
+		private long[] fingerprints;
+		private String indexToken;
 		private MapIndex attributeIndex;
-		private TimerTask flushTask;
+		private volatile ScheduledFuture<?> flushTask;
+		private volatile ScheduledFuture<?> snapshotTask;
+		private volatile boolean closed;
 		
-		private Map<Object, IndexUpdateEvent> pendingUpdates;
+		private IndexUpdateBuffer pendingUpdates;
+		// used in synchronous mode instead of buffer
+		private final SingleEventBatch syncBatch = new SingleEventBatch();
+		// used for plugins implementing BatchUpdateSearchIndex
+		private final IndexUpdateBatch groupedBatch = new IndexUpdateBatch();
+		private ScheduledExecutorService indexingPool;
+		private final Object flushMonitor = new Object();
+		private final Object watermarkMonitor = new Object();
+		private volatile long appliedWatermark;
+		private final AtomicBoolean flushRequested = new AtomicBoolean();
+		private AdaptiveFlushPolicy flushPolicy;
+		// number of events of current flush applied by completed slices, guarded by flush monitor
+		private int slicesApplied;
+		private boolean adaptiveFlush = false;
+		// guards core index, writers to update buffer do not need it
+		private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+		
+		private final Object bulkLock = new Object();
+		// keys and raw (binary) values collected during initial population of index, guarded by bulkLock
+		private Map<Object, Object> bulkDocuments;
+		private volatile boolean bulkLoading;
+		private ScheduledExecutorService bulkPool;
+		private volatile Future<?> buildTask;
+		private volatile ScheduledFuture<?> bulkTimeoutTask;
+		// in background build mode index is not used by queries until it is built
+		private boolean backgroundBuild;
+		private volatile boolean indexReady = true;
+		private volatile boolean buildFailed;
+		// source of documents for rebuild after failed background build
+		private BackingMapContext backingMapContext;
+		// attributes index has been rebuilt from, buffered updates are replayed against them, guarded by flush monitor
+		private Map<Object, Object> rebuiltDocuments;
 		
 		private int queueSizeLimit = 0;
 		private int indexingDelay = 0;
 		private boolean originalValueForUpdates = true;
+		private boolean originalValueForDeletes = true;
+		// plugin guarantees no false positives, entries matched by index are not evaluated
+		private boolean exactResults = false;
+		private boolean staleIndexQuery = false;
+		private int queryWaitTimeout = 0;
 		
 		private boolean binaryMode = false;
 		private Serializer serializer = null;
+
+		// null if JMX is disabled
+		private SearchIndexStats stats;
+		// null if result cache is disabled
+		private QueryResultCache<Q> resultCache;
 		
-		public SearchIndexEngine(I index, ValueExtractor extractor, PlugableSearchIndex<I, ?, Q> psi) {
-			this.coreIndex = index;
+		public <IC> SearchIndexEngine(final PlugableSearchIndex<I, IC, Q> psi, final IC indexConfig, ValueExtractor extractor) {
+			this.indexFactory = new IndexFactory<I>() {
+				@Override
+				public I createIndex() {
+					return psi.createIndexInstance(indexConfig);
+				}
+			};
 			this.attributeExtrator = extractor;
 			this.psi = psi;
 		}
 
-		public void init(IndexEngineConfig config, Map<Object, Object> indexMap) {
-			configure(config);
+		public void init(IndexEngineConfig config, Map<Object, Object> indexMap, BackingMapContext context, Object token) {
+			indexToken = String.valueOf(token);
+			configure(config, context);
 			if (attributeIndex != null) {
 				if (indexMap.get(attributeExtrator) == null) {
 					indexMap.put(attributeExtrator, indexMap);
 				}
 			}
+			if (config.isJmxEnabled()) {
+				String cacheName = context == null ? "local-" + Integer.toHexString(System.identityHashCode(indexMap)) : context.getCacheName();
+				stats = new SearchIndexStats(this, cacheName, indexToken);
+				stats.register();
+			}
 		}
 		
-		private void configure(IndexEngineConfig config) {
+		private void configure(IndexEngineConfig config, BackingMapContext context) {
 
 			psi.configure(config);			
+			IndexCapabilities capabilities = psi instanceof CapabilityAwareSearchIndex ? ((CapabilityAwareSearchIndex)psi).getCapabilities() : new IndexCapabilities();
 			if (config.isAttributeIndexEnabled()) {
 				attributeIndex = new SimpleMapIndex(attributeExtrator, false, null, null);
 			}
 		
 			queueSizeLimit = config.getIndexUpdateQueueSizeLimit();
 			indexingDelay = config.getIndexUpdateDelay();
-			originalValueForUpdates = config.isOldValueOnUpdateEnabled();
+			// no point to extract values plugin would not read
+			originalValueForUpdates = config.isOldValueOnUpdateEnabled() && capabilities.isOriginalValueRequired();
+			originalValueForDeletes = config.isOldValueOnUpdateEnabled() && capabilities.isDeletedValueRequired();
+			exactResults = capabilities.isExactResults();
+			staleIndexQuery = config.isStaleIndexQueryEnabled();
+			queryWaitTimeout = config.getQueryWaitTimeout();
+			
+			adaptiveFlush = config.isAdaptiveFlushEnabled();
+			
+			// result cache relies on dictionary to check that query covers all indexed keys,
+			// this is documented in IndexEngineConfig#getQueryResultCacheSize()
+			keyDictionaryEnabled = config.isKeyDictionaryEnabled() || capabilities.isKeyDictionaryRequired() || config.getQueryResultCacheSize() > 0;
+			if (config.getQueryResultCacheSize() > 0) {
+				resultCache = new QueryResultCache<Q>(psi, config.getQueryResultCacheSize(), config.getQueryResultCacheKeyLimit(), config.isQueryResultCacheFineInvalidation());
+			}
+			if (config.isPartitionedIndexEnabled() && context != null) {
+				partitionContext = context.getManagerContext();
+				partitionIndexes = new HashMap<Integer, PartitionIndex<I>>();
+			}
+			else {
+				coreIndex = indexFactory.createIndex();
+				if (keyDictionaryEnabled) {
+					keyDictionary = new KeyDictionary();
+				}
+			}
+			
+			if (config.getSnapshotDirectory() != null) {
+				if (psi instanceof PersistentSearchIndex && keyDictionary != null && context != null) {
+					snapshotContext = context.getManagerContext();
+					snapshotFile = new File(config.getSnapshotDirectory(), IndexSnapshot.fileName(context.getCacheName(), indexToken, getMemberIdentity(snapshotContext)));
+					fingerprints = new long[16];
+				}
+				else {
+					CacheFactory.log("Index snapshots require persistent plugin, key dictionary and non partitioned index, snapshots are disabled for " + indexToken, CacheFactory.LOG_WARN);
+				}
+			}
 			
-			if (queueSizeLimit > 0) {
-				pendingUpdates = new HashMap<Object, IndexUpdateEvent>();
-				if (indexingDelay > 0) {
-					scheduleFlasher(indexingDelay);
+			backgroundBuild = config.isBackgroundIndexBuildEnabled();
+			// snapshot is restored in place of initial build
+			boolean bulkBuild = config.isBulkIndexBuildEnabled() && capabilities.isBulkUpdateSupported();
+			if (bulkBuild || backgroundBuild || snapshotFile != null) {
+				// cache service inserts existing entries right after index is created,
+				// their number is known only if backing map is available
+				int existing = context == null ? 0 : context.getBackingMap().size();
+				if (existing > 0) {
+					bulkDocuments = new HashMap<Object, Object>(2 * existing);
+					bulkLoading = true;
+					bulkPool = IndexingScheduler.getPool(IndexingScheduler.BULK_LOAD_POOL, Runtime.getRuntime().availableProcessors());
+					scheduleBulkLoadTimeout(config.getBulkIndexBuildTimeout());
 				}
 			}
+			if (backgroundBuild && bulkLoading) {
+				indexReady = false;
+				backingMapContext = context;
+			}
+			
+			// updates arriving during background build should be buffered even in synchronous mode
+			if (queueSizeLimit > 0 || backgroundBuild) {
+				pendingUpdates = new IndexUpdateBuffer();
+				flushPolicy = new AdaptiveFlushPolicy(Math.max(1, queueSizeLimit), config.getFlushPauseBudget(), indexingDelay);
+				indexingPool = getIndexingPool(config, context);
+				if (queueSizeLimit > 0 && indexingDelay > 0) {
+					if (adaptiveFlush) {
+						scheduleAdaptiveFlusher();
+					}
+					else {
+						scheduleFlasher(indexingPool, indexingDelay);
+					}
+				}
+			}
+			
+			if (snapshotFile != null && config.getSnapshotInterval() > 0) {
+				scheduleSnapshots(getIndexingPool(config, context), config.getSnapshotInterval());
+			}
 		}
 		
-		private void scheduleFlasher(int indexingDelay) {
-			flushTask = new TimerTask() {
+		private ScheduledExecutorService getIndexingPool(IndexEngineConfig config, BackingMapContext context) {
+			String poolName = IndexingScheduler.NODE_POOL;
+			if (config.isIndexingPoolPerService() && context != null) {
+				poolName = context.getManagerContext().getCacheService().getInfo().getServiceName();
+			}
+			return IndexingScheduler.getPool(poolName, config.getIndexingThreadCount());
+		}
+
+		private void scheduleFlasher(ScheduledExecutorService pool, int indexingDelay) {
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flush();
+					}
+					catch(Throwable e) {
+						// exception would cancel periodic task
+						CacheFactory.log("Index flush failed: " + e.toString(), CacheFactory.LOG_ERR);
+					}
+				}
+			};
+			// fixed delay, so slow flush could not pile up executions of same index
+			flushTask = pool.scheduleWithFixedDelay(task, indexingDelay, indexingDelay, TimeUnit.MILLISECONDS);
+		}
+
+		private void scheduleAdaptiveFlusher() {
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flushPolicy.recordSequence(pendingUpdates.getLastSequence());
+						flush();
+					}
+					catch(Throwable e) {
+						CacheFactory.log("Index flush failed: " + e.toString(), CacheFactory.LOG_ERR);
+					}
+					finally {
+						if (!closed) {
+							scheduleAdaptiveFlusher();
+						}
+					}
+				}
+			};
+			flushTask = indexingPool.schedule(task, flushPolicy.getNextDelay(), TimeUnit.MILLISECONDS);
+		}
+
+		private void scheduleBulkLoadTimeout(final int timeout) {
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (bulkLoading && !closed) {
+							CacheFactory.log("End of initial population has not been signaled for index " + indexToken + " in " + timeout + "ms, building index from collected entries", CacheFactory.LOG_WARN);
+							completeBulkLoad();
+						}
+					}
+					catch(Throwable e) {
+						CacheFactory.log("Bulk index build failed: " + e.toString(), CacheFactory.LOG_ERR);
+					}
+				}
+			};
+			bulkTimeoutTask = bulkPool.schedule(task, timeout, TimeUnit.MILLISECONDS);
+		}
+
+		private void scheduleSnapshots(ScheduledExecutorService pool, int interval) {
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						writeSnapshot();
+					}
+					catch(Throwable e) {
+						CacheFactory.log("Index snapshot failed: " + e.toString(), CacheFactory.LOG_ERR);
+					}
+				}
+			};
+			snapshotTask = pool.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Collects entries of initial population. Only key and raw value are kept,
+		 * entry belongs to cache service thread and should not be used later.
+		 * Attributes are extracted on bulk load pool once population is complete.
+		 * Updates arriving in the meantime simply replace collected value.
+		 */
+		private boolean collectForBulkLoad(Entry entry) {
+			Object key = getKeyFromEntry(entry);
+			Object value = getRawValueFromEntry(entry);
+			synchronized (bulkLock) {
+				if (bulkDocuments == null) {
+					return false;
+				}
+				bulkDocuments.put(key, value);
+			}
+			return true;
+		}
+
+		private boolean discardFromBulkLoad(Entry entry) {
+			Object key = getKeyFromEntry(entry);
+			synchronized (bulkLock) {
+				if (bulkDocuments == null) {
+					return false;
+				}
+				bulkDocuments.remove(key);
+			}
+			return true;
+		}
+
+		/**
+		 * Builds index from collected documents. Called once end of initial population
+		 * is signaled, on timeout or before first query, whichever comes first.
+		 * Concurrent callers are blocked until index is built.
+		 */
+		private void completeBulkLoad() {
+			if (!bulkLoading) {
+				return;
+			}
+			if (backgroundBuild) {
+				startBackgroundBuild();
+				return;
+			}
+			synchronized (bulkLock) {
+				if (bulkDocuments == null) {
+					return;
+				}
+				Map<Object, Object> documents = bulkDocuments;
+				bulkDocuments = null;
+				try {
+					if (!documents.isEmpty()) {
+						loadIndex(extractInParallel(documents));
+					}
+				}
+				finally {
+					bulkLoading = false;
+				}
+			}
+		}
+
+		/**
+		 * Builds index from collected documents in background. Until build is complete,
+		 * updates are buffered and queries are executed as if there were no index.
+		 */
+		private void startBackgroundBuild() {
+			final Map<Object, Object> documents;
+			synchronized (bulkLock) {
+				if (bulkDocuments == null) {
+					return;
+				}
+				documents = bulkDocuments;
+				bulkDocuments = null;
+				bulkLoading = false;
+			}
+			buildTask = bulkPool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (closed) {
+							return;
+						}
+						if (!documents.isEmpty()) {
+							loadIndex(extractInParallel(documents));
+						}
+						if (!closed) {
+							// buffered updates follow collected documents, no need to replay them
+							markIndexReady(null);
+						}
+					}
+					catch(Throwable e) {
+						onBuildFailure(e);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Index is incomplete, queries keep scanning cache and updates are buffered
+		 * until index is rebuilt from backing map.
+		 */
+		private void onBuildFailure(Throwable e) {
+			buildFailed = true;
+			CacheFactory.log("Background index build failed, index will be rebuilt in " + REBUILD_DELAY + "ms: " + e.toString(), CacheFactory.LOG_ERR);
+			synchronized (watermarkMonitor) {
+				watermarkMonitor.notifyAll();
+			}
+			buildTask = bulkPool.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (!closed) {
+							rebuildIndex();
+						}
+					}
+					catch(Throwable e) {
+						onBuildFailure(e);
+					}
+				}
+			}, REBUILD_DELAY, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Rebuilds index from content of backing map. Updates buffered before backing map is read are
+		 * dropped, later ones are replayed against rebuilt documents, so update already seen by
+		 * rebuild is applied as idempotent update.
+		 */
+		private void rebuildIndex() {
+			buildFailed = false;
+			synchronized (flushMonitor) {
+				pendingUpdates.drain();
+				indexLock.writeLock().lock();
+				try {
+					pendingUpdates.recycle();
+				}
+				finally {
+					indexLock.writeLock().unlock();
+				}
+			}
+			Map<Object, Object> raw = new HashMap<Object, Object>();
+			for(Object o: backingMapContext.getBackingMap().entrySet()) {
+				Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+				raw.put(entry.getKey(), entry.getValue());
+			}
+			Map<Object, Object> documents = extractInParallel(raw);
+			indexLock.writeLock().lock();
+			try {
+				resetIndex();
+				loadIndex(documents);
+			}
+			finally {
+				indexLock.writeLock().unlock();
+			}
+			if (!closed) {
+				markIndexReady(documents);
+				CacheFactory.log("Index " + indexToken + " has been rebuilt, " + documents.size() + " entries indexed", CacheFactory.LOG_INFO);
+			}
+		}
+
+		// should be called under index write lock
+		private void resetIndex() {
+			if (partitionIndexes != null) {
+				partitionIndexes.clear();
+			}
+			else {
+				coreIndex = indexFactory.createIndex();
+				if (keyDictionary != null) {
+					keyDictionary = new KeyDictionary();
+				}
+			}
+		}
+
+		/**
+		 * @param indexedDocuments documents buffered updates should be replayed against, <code>null</code> if buffer follows index
+		 */
+		private void markIndexReady(Map<Object, Object> indexedDocuments) {
+			try {
+				synchronized (flushMonitor) {
+					// updates buffered during build are applied before any newer update
+					rebuiltDocuments = indexedDocuments;
+					indexReady = true;
+					drainAndApply();
+				}
+			}
+			finally {
+				// failed updates would be retried by next flush, but waiters should not hang
+				synchronized (watermarkMonitor) {
+					watermarkMonitor.notifyAll();
+				}
+			}
+		}
+
+		private void awaitIndexReady(long timeout) {
+			long deadline = System.currentTimeMillis() + timeout;
+			synchronized (watermarkMonitor) {
+				while(!indexReady && !buildFailed) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new IllegalStateException("Index is not built in " + timeout + "ms");
+					}
+					try {
+						watermarkMonitor.wait(remaining);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException("Interrupted while waiting for index build");
+					}
+				}
+			}
+			if (buildFailed) {
+				throw new IllegalStateException("Index build has failed, rebuild is pending");
+			}
+		}
+
+		/**
+		 * Extracts attributes from collected raw values. Work is split in chunks
+		 * between bulk load pool and calling thread.
+		 */
+		private Map<Object, Object> extractInParallel(Map<Object, Object> rawDocuments) {
+			final int size = rawDocuments.size();
+			final int chunkCount = (size + BULK_LOAD_CHUNK - 1) / BULK_LOAD_CHUNK;
+			final Object[] keys = new Object[size];
+			final Object[] values = new Object[size];
+			int n = 0;
+			for(Map.Entry<Object, Object> doc: rawDocuments.entrySet()) {
+				keys[n] = doc.getKey();
+				values[n] = doc.getValue();
+				++n;
+			}
+			final AtomicInteger nextChunk = new AtomicInteger();
+			final CountDownLatch done = new CountDownLatch(chunkCount);
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+			Runnable worker = new Runnable() {
 				@Override
 				public void run() {
-					flush();
+					int chunk;
+					while((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+						try {
+							int end = Math.min(size, (chunk + 1) * BULK_LOAD_CHUNK);
+							for(int i = chunk * BULK_LOAD_CHUNK; i < end; ++i) {
+								values[i] = CohIndexHelper.extractFromEntryOrValue(new RawEntry(keys[i], values[i]), attributeExtrator);
+							}
+						}
+						catch(Throwable e) {
+							error.compareAndSet(null, e);
+						}
+						finally {
+							done.countDown();
+						}
+					}
 				}
 			};
-			INDEX_TIMER.schedule(flushTask , indexingDelay, indexingDelay);
+			int helpers = Math.min(chunkCount - 1, Runtime.getRuntime().availableProcessors());
+			for(int i = 0; i < helpers; ++i) {
+				bulkPool.execute(worker);
+			}
+			// calling thread is working too, so it could not starve waiting for pool
+			worker.run();
+			try {
+				done.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted during bulk index build");
+			}
+			if (error.get() != null) {
+				throw new RuntimeException("Bulk index build failed", error.get());
+			}
+			Map<Object, Object> documents = new HashMap<Object, Object>(2 * size);
+			for(int i = 0; i != size; ++i) {
+				documents.put(keys[i], values[i]);
+			}
+			return documents;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void loadIndex(Map<Object, Object> documents) {
+			long start = System.nanoTime();
+			indexLock.writeLock().lock();
+			try {
+				if (resultCache != null) {
+					resultCache.invalidate(null);
+				}
+				if (snapshotFile != null && snapshotFile.exists() && !documents.isEmpty() && restoreSnapshot(documents)) {
+					// only changed entries have been replayed
+				}
+				else if (psi instanceof BulkLoadSearchIndex) {
+					BulkLoadSearchIndex<I> loader = (BulkLoadSearchIndex<I>) psi;
+					if (partitionIndexes == null) {
+						allocateIds(keyDictionary, documents.keySet());
+						if (fingerprints != null) {
+							for(Map.Entry<Object, Object> doc: documents.entrySet()) {
+								setFingerprint(keyDictionary.getId(doc.getKey()), doc.getValue());
+							}
+						}
+						loader.loadIndexEntries(coreIndex, documents, this);
+					}
+					else {
+						Map<Integer, Map<Object, Object>> split = new HashMap<Integer, Map<Object,Object>>();
+						for(Map.Entry<Object, Object> doc: documents.entrySet()) {
+							Integer p = partitionContext.getKeyPartition(doc.getKey());
+							Map<Object, Object> part = split.get(p);
+							if (part == null) {
+								part = new HashMap<Object, Object>();
+								split.put(p, part);
+							}
+							part.put(doc.getKey(), doc.getValue());
+						}
+						for(Map.Entry<Integer, Map<Object, Object>> part: split.entrySet()) {
+							PartitionIndex<I> pi = createPartitionIndex();
+							allocateIds(pi.dictionary, part.getValue().keySet());
+							if (pi.keys != null) {
+								pi.keys.addAll(part.getValue().keySet());
+							}
+							loader.loadIndexEntries(pi.index, part.getValue(), pi.context);
+							partitionIndexes.put(part.getKey(), pi);
+						}
+					}
+				}
+				else {
+					// single batch is still cheaper than per entry updates
+					Map<Object, IndexUpdateEvent> batch = new HashMap<Object, IndexUpdateEvent>(2 * documents.size());
+					for(Map.Entry<Object, Object> doc: documents.entrySet()) {
+						batch.put(doc.getKey(), new IndexUpdateEvent(doc.getKey(), doc.getValue(), null, Type.INSERT));
+					}
+					updateIndex(batch);
+				}
+			}
+			finally {
+				indexLock.writeLock().unlock();
+			}
+			if (stats != null) {
+				// initial build is accounted as single large flush
+				stats.recordFlush(documents.size(), System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Called once cache service has inserted all entries existing at index creation.
+		 */
+		void signalPopulationComplete() {
+			completeBulkLoad();
 		}
 
 		public void tearDown(Map<?, ?> indexMap) {
 			if (attributeIndex == indexMap.get(attributeExtrator)) {
 				indexMap.remove(attributeExtrator);
 			}
+			synchronized (bulkLock) {
+				bulkDocuments = null;
+				bulkLoading = false;
+			}
+			closed = true;
+			if (bulkTimeoutTask != null) {
+				bulkTimeoutTask.cancel(false);
+			}
+			if (buildTask != null) {
+				// build already in progress would complete, but index would not be published
+				buildTask.cancel(false);
+			}
 			if (flushTask != null) {
-				flushTask.cancel();
+				flushTask.cancel(false);
+			}
+			if (snapshotTask != null) {
+				snapshotTask.cancel(false);
+			}
+			if (stats != null) {
+				stats.unregister();
 			}
 		}
 		
 		@Override
 		public void insert(Entry entry) {
 			checkMode(entry);
+			if (bulkLoading && collectForBulkLoad(entry)) {
+				// existing entry, it is indexed in bulk
+				return;
+			}
 			Object key = getKeyFromEntry(entry);
 			Object value = getValueFromEntry(entry);
-			IndexUpdateEvent event = new IndexUpdateEvent(key, value, null, Type.INSERT);
 			if (attributeIndex != null) {
 				attributeIndex.delete(entry);
 			}
-			enqueue(event);
+			enqueue(key, value, null, Type.INSERT);
 		}
 
 		@Override
 		public void update(Entry entry) {
 			checkMode(entry);
+			if (bulkLoading && collectForBulkLoad(entry)) {
+				// entry is not indexed yet, collected value is replaced
+				return;
+			}
 			Object key = getKeyFromEntry(entry);
 			Object value = getValueFromEntry(entry);
-			Object oldValue = getOriginalValueFromEntry(entry);
-			IndexUpdateEvent event = new IndexUpdateEvent(key, value, oldValue, Type.UPDATE);
+			Object oldValue = originalValueForUpdates ? getOriginalValueFromEntry(entry) : null;
 			if (attributeIndex != null) {
 				attributeIndex.delete(entry);
 			}
-			enqueue(event);
+			enqueue(key, value, oldValue, Type.UPDATE);
 		}
 		
 		@Override
 		public void delete(Entry entry) {
 			checkMode(entry);
+			if (bulkLoading && discardFromBulkLoad(entry)) {
+				return;
+			}
 			Object key = getKeyFromEntry(entry);
-			Object oldValue = getOriginalValueFromEntry(entry);
-			IndexUpdateEvent event = new IndexUpdateEvent(key, null, oldValue, Type.DELETE);
+			Object oldValue = originalValueForDeletes ? getOriginalValueFromEntry(entry) : null;
 			if (attributeIndex != null) {
 				attributeIndex.delete(entry);
 			}
-			enqueue(event);
+			enqueue(key, null, oldValue, Type.DELETE);
 		}
 
 		private void checkMode(Entry entry) {
@@ -245,165 +924,1200 @@ public class SearchFactory<I, IC, Q> {
 				return ((BinaryEntry)entry).getBinaryKey();
 			}
 			else {
-				return entry.getKey(); 
+				return entry.getKey(); 
+			}
+		}
+
+		private Object getValueFromEntry(Entry entry) {
+			// extractors like PofExtractor could navigate serialized value without deserializing it
+			return CohIndexHelper.extractFromEntryOrValue(entry, attributeExtrator);
+		}
+
+		private Object getRawValueFromEntry(Entry entry) {
+			if (entry instanceof BinaryEntry) {
+				return ((BinaryEntry)entry).getBinaryValue();
+			}
+			else {
+				return entry.getValue();
+			}
+		}
+
+		/**
+		 * Entry view of collected key and raw value, used to extract attribute off service thread.
+		 */
+		private class RawEntry implements Map.Entry<Object, Object> {
+			
+			private final Object key;
+			private final Object value;
+			
+			public RawEntry(Object key, Object value) {
+				this.key = key;
+				this.value = value;
+			}
+
+			@Override
+			public Object getKey() {
+				return ensureObjectKey(key);
+			}
+
+			@Override
+			public Object getValue() {
+				if (value instanceof Binary) {
+					return serializer == null ? ExternalizableHelper.fromBinary((Binary) value) : ExternalizableHelper.fromBinary((Binary) value, serializer);
+				}
+				else {
+					return value;
+				}
+			}
+
+			@Override
+			public Object setValue(Object newValue) {
+				throw new UnsupportedOperationException();
+			}
+		}
+
+		private Object getOriginalValueFromEntry(Entry entry) {
+			if (entry instanceof MapTrigger.Entry) {
+				return CohIndexHelper.extractFromOriginalValue((MapTrigger.Entry)entry, attributeExtrator);
+			}
+			else if (entry instanceof BinaryEntry) {
+				return attributeExtrator.extract(((BinaryEntry)entry).getOriginalValue());
+			}
+			else {
+				if (attributeIndex != null) {
+					return attributeIndex.get(getKeyFromEntry(entry));
+				}
+				else {
+					throw new RuntimeException("Forward attribute index required");
+				}
+			}
+		}
+
+		private void enqueue(Object key, Object value, Object oldValue, Type type) {
+			if (stats == null) {
+				enqueueEvent(key, value, oldValue, type);
+			}
+			else {
+				long start = System.nanoTime();
+				enqueueEvent(key, value, oldValue, type);
+				stats.enqueueTime.record(System.nanoTime() - start);
+			}
+		}
+
+		// events are created in place by update buffer, no garbage per update
+		private void enqueueEvent(Object key, Object value, Object oldValue, Type type) {
+			// while index is being rebuilt, updates are buffered as during background build
+			if (queueSizeLimit == 0 && pendingUpdates != null) {
+				// buffer is used only to keep order of updates around background build
+				pendingUpdates.add(key, value, oldValue, type);
+				flush();
+			}
+			else if (queueSizeLimit == 0) {
+				long start = System.nanoTime();
+				indexLock.writeLock().lock();
+				try {
+					// batch is reused, it is guarded by write lock
+					syncBatch.event.reset(key, value, oldValue, type, 0);
+					updateIndex(syncBatch);
+					syncBatch.event.clear();
+				}
+				finally {
+					indexLock.writeLock().unlock();
+				}
+				if (stats != null) {
+					stats.recordFlush(1, System.nanoTime() - start);
+				}
+			}
+			else {
+				int size = pendingUpdates.add(key, value, oldValue, type);
+				if (adaptiveFlush) {
+					int threshold = flushPolicy.getFlushThreshold();
+					if (size >= flushPolicy.getHardLimit()) {
+						// background flush is falling behind
+						flush(threshold);
+					}
+					else if (size >= threshold) {
+						requestFlush();
+					}
+				}
+				else if (size >= queueSizeLimit) {
+					flush(queueSizeLimit);
+				}
+			}
+		}
+		
+		private void flush() {
+			flush(1);
+		}
+
+		private void flush(int threshold) {
+			if (pendingUpdates == null) {
+				return;
+			}
+			synchronized (flushMonitor) {
+				if (pendingUpdates.size() >= threshold) {
+					drainAndApply();
+				}
+			}
+		}
+
+		/**
+		 * Makes sure all updates up to provided sequence number are applied.
+		 * Does nothing, if watermark has been already advanced by concurrent flush.
+		 */
+		private void flushUpTo(long sequence) {
+			if (pendingUpdates == null || appliedWatermark >= sequence) {
+				return;
+			}
+			synchronized (flushMonitor) {
+				if (appliedWatermark < sequence) {
+					drainAndApply();
+				}
+			}
+		}
+
+		/**
+		 * Rewrites buffered events relative to documents index has been rebuilt from.
+		 * Event carries latest value of entry, so only its type and original value need adjustment.
+		 */
+		private void replayAgainst(Map<Object, IndexUpdateEvent> batch, Map<Object, Object> documents) {
+			for(IndexUpdateEvent event: batch.values()) {
+				Object key = event.getKey();
+				boolean indexed = documents.containsKey(key);
+				Object indexedValue = documents.get(key);
+				Type type = event.getType();
+				if (type == Type.INSERT || type == Type.UPDATE) {
+					event.reset(key, event.getValue(), indexedValue, indexed ? Type.UPDATE : Type.INSERT, event.getSequenceNumber());
+				}
+				else {
+					// delete, or insert and delete merged into nothing
+					event.reset(key, null, indexedValue, indexed ? Type.DELETE : Type.NOPE, event.getSequenceNumber());
+				}
+			}
+		}
+
+		// should be called under flush monitor
+		private void drainAndApply() {
+			if (!indexReady) {
+				// updates are kept in buffer until index is built
+				return;
+			}
+			long start = System.nanoTime();
+			// writers are blocked only for buffer swap
+			Map<Object, IndexUpdateEvent> batch = pendingUpdates.drain();
+			if (rebuiltDocuments != null) {
+				replayAgainst(batch, rebuiltDocuments);
+				rebuiltDocuments = null;
+			}
+			if (!batch.isEmpty()) {
+				int batchSize = batch.size();
+				boolean applied = false;
+				slicesApplied = 0;
+				try {
+					int sliceSize = flushPolicy.getSliceSize();
+					if (batch.size() <= sliceSize) {
+						applyBatch(batch);
+					}
+					else {
+						applySliced(batch, sliceSize);
+					}
+					applied = true;
+				}
+				finally {
+					// retired events could be read by stale queries, so recycle under lock
+					indexLock.writeLock().lock();
+					try {
+						if (applied) {
+							pendingUpdates.recycle();
+						}
+						else {
+							// failed events are retried by next flush, only complete slices are dropped
+							pendingUpdates.requeue(slicesApplied);
+						}
+					}
+					finally {
+						indexLock.writeLock().unlock();
+					}
+				}
+				if (stats != null) {
+					stats.recordFlush(batchSize, System.nanoTime() - start);
+				}
+			}
+			synchronized (watermarkMonitor) {
+				appliedWatermark = pendingUpdates.getRetiredWatermark();
+				watermarkMonitor.notifyAll();
+			}
+		}
+
+		private void applyBatch(Map<Object, IndexUpdateEvent> batch) {
+			indexLock.writeLock().lock();
+			try {
+				long start = System.nanoTime();
+				updateIndex(batch);
+				flushPolicy.recordApply(batch.size(), System.nanoTime() - start);
+			}
+			finally {
+				indexLock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * Applies large batch in slices, releasing index lock between them.
+		 * Batch remains visible to stale queries until all slices are applied.
+		 */
+		private void applySliced(Map<Object, IndexUpdateEvent> batch, int sliceSize) {
+			Map<Object, IndexUpdateEvent> slice = new HashMap<Object, IndexUpdateEvent>();
+			for(IndexUpdateEvent event: batch.values()) {
+				slice.put(event.getKey(), event);
+				if (slice.size() >= sliceSize) {
+					applyBatch(slice);
+					slicesApplied += slice.size();
+					slice.clear();
+					// cost estimate is updated after each slice
+					sliceSize = flushPolicy.getSliceSize();
+				}
+			}
+			if (!slice.isEmpty()) {
+				applyBatch(slice);
+			}
+		}
+
+		private void requestFlush() {
+			if (flushRequested.compareAndSet(false, true)) {
+				indexingPool.execute(new Runnable() {
+					@Override
+					public void run() {
+						flushRequested.set(false);
+						try {
+							flush();
+						}
+						catch(Throwable e) {
+							CacheFactory.log("Index flush failed: " + e.toString(), CacheFactory.LOG_ERR);
+						}
+					}
+				});
+			}
+		}
+
+		int getPendingUpdateCount() {
+			return pendingUpdates == null ? 0 : pendingUpdates.size();
+		}
+
+		long getCoalescedUpdateCount() {
+			return pendingUpdates == null ? 0 : pendingUpdates.getMergedCount();
+		}
+
+		boolean isIndexReady() {
+			return !bulkLoading && indexReady && !buildFailed;
+		}
+
+		long getIndexedKeyCount() {
+			indexLock.readLock().lock();
+			try {
+				return countIndexedKeys();
+			}
+			finally {
+				indexLock.readLock().unlock();
+			}
+		}
+
+		// should be called under index read lock
+		private long countIndexedKeys() {
+			if (partitionIndexes != null) {
+				long count = 0;
+				for(PartitionIndex<I> pi: partitionIndexes.values()) {
+					count += pi.size();
+				}
+				return count;
+			}
+			else if (keyDictionary != null) {
+				return keyDictionary.size();
+			}
+			else {
+				return -1;
+			}
+		}
+
+		/**
+		 * Candidate set of same size may still differ from indexed keys (e.g. with pending insert and delete),
+		 * so each key is checked against dictionary (or key set of partition). Should be called under index read lock.
+		 * @return <code>true</code> if keys are exactly keys present in index
+		 */
+		private boolean isIndexedKeySet(Set<Object> keys) {
+			if (partitionIndexes != null) {
+				if (keys.size() != countIndexedKeys()) {
+					return false;
+				}
+				for(Object key: keys) {
+					PartitionIndex<I> pi = partitionIndexes.get(partitionContext.getKeyPartition(key));
+					if (pi == null || !pi.contains(key)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			else if (keyDictionary != null) {
+				if (keys.size() != keyDictionary.size()) {
+					return false;
+				}
+				for(Object key: keys) {
+					if (keyDictionary.getId(key) < 0) {
+						return false;
+					}
+				}
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		Map<String, Number> getIndexStructureStats() {
+			Map<String, Number> result = new TreeMap<String, Number>();
+			if (psi instanceof StatisticsAwareSearchIndex) {
+				StatisticsAwareSearchIndex<I> sasi = (StatisticsAwareSearchIndex<I>) psi;
+				indexLock.readLock().lock();
+				try {
+					if (partitionIndexes == null) {
+						if (coreIndex != null) {
+							result.putAll(sasi.getIndexStatistics(coreIndex));
+						}
+					}
+					else {
+						for(PartitionIndex<I> pi: partitionIndexes.values()) {
+							for(Map.Entry<String, Number> stat: sasi.getIndexStatistics(pi.index).entrySet()) {
+								Number total = result.get(stat.getKey());
+								if (total == null) {
+									result.put(stat.getKey(), stat.getValue());
+								}
+								else if (total instanceof Double || total instanceof Float) {
+									result.put(stat.getKey(), total.doubleValue() + stat.getValue().doubleValue());
+								}
+								else {
+									result.put(stat.getKey(), total.longValue() + stat.getValue().longValue());
+								}
+							}
+						}
+					}
+				}
+				finally {
+					indexLock.readLock().unlock();
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public long getLastUpdateSequence() {
+			return pendingUpdates == null ? 0 : pendingUpdates.getLastSequence();
+		}
+
+		@Override
+		public long getAppliedWatermark() {
+			// in synchronous mode updates are always applied
+			return pendingUpdates == null ? 0 : appliedWatermark;
+		}
+
+		@Override
+		public boolean awaitWatermark(long sequence, long timeoutMs) throws InterruptedException {
+			if (pendingUpdates == null || appliedWatermark >= sequence) {
+				return true;
+			}
+			requestFlush();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			synchronized (watermarkMonitor) {
+				while(appliedWatermark < sequence) {
+					long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (wait <= 0) {
+						return false;
+					}
+					watermarkMonitor.wait(wait);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Object get(Object key) {
+			return NO_VALUE;
+		}
+
+		@Override
+		public Comparator getComparator() {
+			return null;
+		}
+
+		@Override
+		public Map getIndexContents() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ValueExtractor getValueExtractor() {
+			return attributeExtrator;
+		}
+
+		@Override
+		public boolean isOrdered() {
+			return false;
+		}
+
+		@Override
+		public boolean isPartial() {
+			return false;
+		}
+
+		@Override
+		public Binary ensureBinaryKey(Object key) {
+			if (key instanceof Binary) {
+				return (Binary) key;
+			}
+			else {
+				// TODO proper serializer support
+				if (serializer != null) {
+					return ExternalizableHelper.toBinary(key, serializer);
+				}
+				else {
+					return ExternalizableHelper.toBinary(key);
+				}
+			}
+		}
+
+		@Override
+		public Object ensureObjectKey(Object key) {
+			if (key instanceof Binary) {
+				if (serializer != null) {
+					return ExternalizableHelper.fromBinary((Binary) key, serializer);
+				}
+				else {
+					return ExternalizableHelper.fromBinary((Binary) key);
+				}
+			}
+			else {
+				// TODO proper serializer support
+				return key;
+			}
+		}
+		
+
+		@Override
+		public Object ensureFilterCompatibleKey(Object key) {
+			if (binaryMode) {
+				return ensureBinaryKey(key);
+			}
+			else {
+				return ensureObjectKey(key);
+			}
+		}
+
+		@Override
+		public Object getRawAttribute(Object key) {
+			if (attributeIndex != null) {
+				// TODO ensure compatible key format
+				return attributeIndex.get(key);
+			}
+			throw new UnsupportedOperationException("Raw attribute index is not configured");
+		}
+
+		@Override
+		public KeyDictionary getKeyDictionary() {
+			if (keyDictionary == null) {
+				throw new UnsupportedOperationException("Key dictionary is not enabled");
+			}
+			return keyDictionary;
+		}
+		
+		
+		
+		// should be called under index write lock
+		private void updateIndex(Map<Object, IndexUpdateEvent> batch) {
+			if (resultCache != null) {
+				resultCache.invalidate(batch.values());
+			}
+			if (partitionIndexes == null) {
+				updateIndexInstance(coreIndex, keyDictionary, batch, this);
+			}
+			else if (batch.size() == 1) {
+				IndexUpdateEvent event = batch.values().iterator().next();
+				updatePartitionIndex(partitionContext.getKeyPartition(event.getKey()), batch);
+			}
+			else {
+				Map<Integer, Map<Object, IndexUpdateEvent>> split = new HashMap<Integer, Map<Object,IndexUpdateEvent>>();
+				for(IndexUpdateEvent event: batch.values()) {
+					Integer p = partitionContext.getKeyPartition(event.getKey());
+					Map<Object, IndexUpdateEvent> part = split.get(p);
+					if (part == null) {
+						part = new HashMap<Object, IndexUpdateEvent>();
+						split.put(p, part);
+					}
+					part.put(event.getKey(), event);
+				}
+				for(Map.Entry<Integer, Map<Object, IndexUpdateEvent>> part: split.entrySet()) {
+					updatePartitionIndex(part.getKey(), part.getValue());
+				}
+			}
+		}
+
+		private void updatePartitionIndex(Integer partition, Map<Object, IndexUpdateEvent> events) {
+			PartitionIndex<I> pi = partitionIndexes.get(partition);
+			if (pi == null) {
+				pi = createPartitionIndex();
+				partitionIndexes.put(partition, pi);
+			}
+			updateIndexInstance(pi.index, pi.dictionary, events, pi.context);
+			if (pi.keys != null) {
+				for(IndexUpdateEvent event: events.values()) {
+					if (event.getType() == Type.DELETE) {
+						pi.keys.remove(event.getKey());
+					}
+					else {
+						pi.keys.add(event.getKey());
+					}
+				}
+			}
+			if (pi.size() == 0 && !isOwnedPartition(partition)) {
+				// partition has moved away or was lost, its entries have been removed, drop its index as a whole
+				partitionIndexes.remove(partition);
+			}
+		}
+
+		private boolean isOwnedPartition(int partition) {
+			CacheService service = partitionContext.getCacheService();
+			if (service instanceof PartitionedService) {
+				PartitionSet owned = ((PartitionedService) service).getOwnedPartitions(service.getCluster().getLocalMember());
+				return owned.contains(partition);
+			}
+			else {
+				return true;
+			}
+		}
+
+		private void updateIndexInstance(I index, KeyDictionary dictionary, Map<Object, IndexUpdateEvent> events, IndexInvocationContext context) {
+			if (dictionary != null) {
+				// merged event type is relative to state of index before batch
+				for(IndexUpdateEvent event: events.values()) {
+					if (event.getType() == Type.INSERT || event.getType() == Type.UPDATE) {
+						int id = dictionary.allocate(event.getKey());
+						if (fingerprints != null) {
+							setFingerprint(id, event.getValue());
+						}
+					}
+				}
+			}
+			if (psi instanceof BatchUpdateSearchIndex) {
+				applyGrouped(index, dictionary, events, context);
+			}
+			else {
+				psi.updateIndexEntries(index, events, context);
+			}
+			if (dictionary != null) {
+				// IDs are released only after plugin has processed deletes
+				for(IndexUpdateEvent event: events.values()) {
+					if (event.getType() == Type.DELETE) {
+						dictionary.release(event.getKey());
+					}
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void applyGrouped(I index, KeyDictionary dictionary, Map<Object, IndexUpdateEvent> events, IndexInvocationContext context) {
+			// batch is reused, it is guarded by index write lock
+			groupedBatch.fill(events, dictionary);
+			try {
+				((BatchUpdateSearchIndex<I>)psi).updateIndexBatch(index, groupedBatch, context);
+			}
+			finally {
+				groupedBatch.clear();
+			}
+		}
+
+		// snapshots are used only with core index, so fingerprints follow core dictionary
+		private void setFingerprint(int id, Object value) {
+			if (id >= fingerprints.length) {
+				long[] nf = new long[Math.max(id + 1, 2 * fingerprints.length)];
+				System.arraycopy(fingerprints, 0, nf, 0, fingerprints.length);
+				fingerprints = nf;
+			}
+			fingerprints[id] = IndexSnapshot.fingerprint(value, serializer);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void writeSnapshot() throws IOException {
+			if (snapshotFile == null) {
+				throw new UnsupportedOperationException("Index snapshots are not enabled");
+			}
+			if (bulkLoading || !indexReady || buildFailed) {
+				// index is not populated yet
+				return;
+			}
+			synchronized (snapshotFile) {
+				flushUpTo(getLastUpdateSequence());
+				indexLock.readLock().lock();
+				try {
+					IndexSnapshot.write(snapshotFile, indexToken, keyDictionary, fingerprints, (PersistentSearchIndex<I>) psi, coreIndex, this);
+				}
+				finally {
+					indexLock.readLock().unlock();
+				}
+			}
+		}
+
+		/**
+		 * Loads index from snapshot and replays entries changed since it was taken.
+		 * Should be called under index write lock.
+		 * @return <code>false</code> if snapshot could not be used
+		 */
+		@SuppressWarnings("unchecked")
+		private static String getMemberIdentity(BackingMapManagerContext context) {
+			// member name survives restart, ID may not
+			Member member = context.getCacheService().getCluster().getLocalMember();
+			String name = member.getMemberName();
+			return name == null || name.length() == 0 ? "member" + member.getId() : name;
+		}
+
+		/**
+		 * Image written before partitions were redistributed does not describe content of this member.
+		 */
+		private void checkSnapshotOwnership(Object[] keys) throws IOException {
+			CacheService service = snapshotContext.getCacheService();
+			if (service instanceof PartitionedService) {
+				PartitionSet owned = ((PartitionedService) service).getOwnedPartitions(service.getCluster().getLocalMember());
+				for(Object key: keys) {
+					if (key != null && !owned.contains(snapshotContext.getKeyPartition(key))) {
+						throw new IOException("Snapshot contains keys of partitions not owned by this member");
+					}
+				}
+			}
+		}
+
+		private boolean restoreSnapshot(Map<Object, Object> documents) {
+			I index;
+			KeyDictionary dictionary;
+			IndexSnapshot snapshot;
+			try {
+				snapshot = IndexSnapshot.read(snapshotFile, indexToken);
+				Object[] keys = snapshot.keys;
+				checkSnapshotOwnership(keys);
+				if (!binaryMode) {
+					for(int i = 0; i != keys.length; ++i) {
+						if (keys[i] != null) {
+							keys[i] = ensureObjectKey(keys[i]);
+						}
+					}
+				}
+				dictionary = KeyDictionary.restore(keys);
+				index = indexFactory.createIndex();
+				((PersistentSearchIndex<I>) psi).readSnapshot(index, snapshot.data, new DictionaryContext(dictionary));
+			}
+			catch(Exception e) {
+				CacheFactory.log("Cannot load index snapshot " + snapshotFile + ", index will be rebuilt: " + e.toString(), CacheFactory.LOG_WARN);
+				return false;
+			}
+			coreIndex = index;
+			keyDictionary = dictionary;
+			fingerprints = snapshot.fingerprints;
+			
+			Map<Object, IndexUpdateEvent> replay = new HashMap<Object, IndexUpdateEvent>();
+			boolean[] present = new boolean[dictionary.getIdLimit()];
+			for(Map.Entry<Object, Object> doc: documents.entrySet()) {
+				int id = dictionary.getId(doc.getKey());
+				if (id < 0) {
+					replay.put(doc.getKey(), new IndexUpdateEvent(doc.getKey(), doc.getValue(), null, Type.INSERT));
+				}
+				else {
+					present[id] = true;
+					long fingerprint = IndexSnapshot.fingerprint(doc.getValue(), serializer);
+					if (fingerprint == IndexSnapshot.UNKNOWN_FINGERPRINT || fingerprints[id] != fingerprint) {
+						replay.put(doc.getKey(), new IndexUpdateEvent(doc.getKey(), doc.getValue(), null, Type.UPDATE));
+					}
+				}
+			}
+			for(int id = 0; id != present.length; ++id) {
+				Object key = dictionary.getKey(id);
+				if (key != null && !present[id]) {
+					replay.put(key, new IndexUpdateEvent(key, null, null, Type.DELETE));
+				}
+			}
+			updateIndex(replay);
+			CacheFactory.log("Index " + indexToken + " restored from snapshot " + snapshotFile + ", " + replay.size() + " of " + documents.size() + " entries replayed", CacheFactory.LOG_INFO);
+			return true;
+		}
+
+		private void allocateIds(KeyDictionary dictionary, Set<Object> keys) {
+			if (dictionary != null) {
+				for(Object key: keys) {
+					dictionary.allocate(key);
+				}
+			}
+		}
+
+		private PartitionIndex<I> createPartitionIndex() {
+			PartitionIndex<I> pi = new PartitionIndex<I>(indexFactory.createIndex());
+			if (keyDictionaryEnabled) {
+				pi.dictionary = new KeyDictionary();
+				pi.context = new DictionaryContext(pi.dictionary);
+			}
+			else {
+				pi.keys = new HashSet<Object>();
+				pi.context = this;
 			}
+			return pi;
 		}
 
-		private Object getValueFromEntry(Entry entry) {
-			// TODO extractor helper
-			return attributeExtrator.extract(entry.getValue());
+		// should be called under index read lock
+		private boolean applyToIndex(Q query, Set<Object> keys) {
+			if (partitionIndexes == null) {
+				return psi.applyIndex(coreIndex, query, keys, this);
+			}
+			else {
+				boolean dirty = false;
+				Set<Object> result = new HashSet<Object>();
+				for(Map.Entry<Integer, Set<Object>> part: splitByPartition(keys).entrySet()) {
+					PartitionIndex<I> pi = partitionIndexes.get(part.getKey());
+					if (pi != null) {
+						Set<Object> partKeys = part.getValue();
+						dirty |= psi.applyIndex(pi.index, query, partKeys, pi.context);
+						result.addAll(partKeys);
+					}
+				}
+				keys.retainAll(result);
+				return dirty;
+			}
 		}
 
-		private Object getOriginalValueFromEntry(Entry entry) {
-			if (!originalValueForUpdates) {
-				return null;
+		// should be called under index read lock
+		private boolean applyQuery(Q query, int limit, Set<Object> keys) {
+			CachedResult cached = resultCache == null ? null : resultCache.get(query);
+			boolean dirty;
+			if (cached != null) {
+				if (stats != null) {
+					stats.resultCacheHits.increment();
+				}
+				keys.retainAll(cached.keys);
+				dirty = cached.dirty;
 			}
-			else {
-				if (entry instanceof BinaryEntry) {
-					return attributeExtrator.extract(((BinaryEntry)entry).getOriginalValue());
+			else if (limit > 0 && psi instanceof LimitAwareSearchIndex) {
+				// partial result could not be cached
+				return applyLimited(query, keys, limit) && !exactResults;
+			}
+			else if (resultCache != null) {
+				if (stats != null) {
+					stats.resultCacheMisses.increment();
 				}
-				else {
-					if (attributeIndex != null) {
-						return attributeIndex.get(getKeyFromEntry(entry));
-					}
-					else {
-						throw new RuntimeException("Forward attribute index required");
-					}
+				// only result for all indexed keys could be reused by other queries
+				boolean complete = isIndexedKeySet(keys);
+				dirty = applyToIndex(query, keys);
+				if (complete) {
+					resultCache.put(query, keys, dirty);
 				}
 			}
+			else {
+				dirty = applyToIndex(query, keys);
+			}
+			dirty &= !exactResults;
+			if (limit > 0 && !dirty) {
+				// exact result, extra keys would be dropped by caller anyway
+				truncate(keys, limit);
+			}
+			return dirty;
 		}
 
-		private void enqueue(IndexUpdateEvent event) {
-			if (queueSizeLimit == 0) {
-				psi.updateIndexEntries(coreIndex, Collections.singletonMap(event.getKey(), event), this);
+		// should be called under index read lock
+		@SuppressWarnings("unchecked")
+		private boolean applyLimited(Q query, Set<Object> keys, int limit) {
+			LimitAwareSearchIndex<I, Q> lasi = (LimitAwareSearchIndex<I, Q>) psi;
+			if (partitionIndexes == null) {
+				return lasi.applyIndex(coreIndex, query, keys, limit, this);
 			}
 			else {
-				synchronized (this) {
-					IndexUpdateEvent old = pendingUpdates.get(event.getKey());
-					if (old != null) {
-						old.merge(event);
+				boolean dirty = false;
+				int remaining = limit;
+				Set<Object> result = new HashSet<Object>();
+				for(Map.Entry<Integer, Set<Object>> part: splitByPartition(keys).entrySet()) {
+					if (remaining <= 0) {
+						// enough exact matches, other partitions are not touched
+						break;
 					}
-					else {
-						pendingUpdates.put(event.getKey(), event);
+					PartitionIndex<I> pi = partitionIndexes.get(part.getKey());
+					if (pi != null) {
+						Set<Object> partKeys = part.getValue();
+						if (lasi.applyIndex(pi.index, query, partKeys, remaining, pi.context)) {
+							// candidates would be post filtered, they do not count
+							dirty = true;
+						}
+						else {
+							remaining -= partKeys.size();
+						}
+						result.addAll(partKeys);
 					}
 				}
-				if (pendingUpdates.size() >= queueSizeLimit) {
-					flush();
-				}
+				keys.retainAll(result);
+				return dirty;
 			}
 		}
-		
-		private synchronized void flush() {
-			if (pendingUpdates != null && pendingUpdates.size() > 0) {
-				psi.updateIndexEntries(coreIndex, pendingUpdates, this);
-				pendingUpdates.clear();
+
+		private static void truncate(Set<Object> keys, int limit) {
+			if (keys.size() > limit) {
+				int n = 0;
+				for(Iterator<Object> it = keys.iterator(); it.hasNext();) {
+					it.next();
+					if (++n > limit) {
+						it.remove();
+					}
+				}
 			}
 		}
 
-		@Override
-		public Object get(Object key) {
-			return NO_VALUE;
+		// should be called under index read lock
+		private int calculateIndexEffectiveness(Q query, Set<Object> keys) {
+			if (partitionIndexes == null) {
+				return psi.calculateEffectiveness(coreIndex, query, keys, this);
+			}
+			else {
+				int effectiveness = 0;
+				for(Map.Entry<Integer, Set<Object>> part: splitByPartition(keys).entrySet()) {
+					PartitionIndex<I> pi = partitionIndexes.get(part.getKey());
+					if (pi != null) {
+						effectiveness += psi.calculateEffectiveness(pi.index, query, part.getValue(), pi.context);
+					}
+				}
+				return effectiveness;
+			}
 		}
 
-		@Override
-		public Comparator getComparator() {
-			return null;
+		/**
+		 * Only partitions present in key set are touched by query,
+		 * e.g. for {@link PartitionedFilter} key set is already limited to requested partitions.
+		 */
+		private Map<Integer, Set<Object>> splitByPartition(Set<Object> keys) {
+			Map<Integer, Set<Object>> split = new HashMap<Integer, Set<Object>>();
+			for(Object key: keys) {
+				Integer p = partitionContext.getKeyPartition(key);
+				Set<Object> part = split.get(p);
+				if (part == null) {
+					part = new HashSet<Object>();
+					split.put(p, part);
+				}
+				part.add(key);
+			}
+			return split;
 		}
 
-		@Override
-		public Map getIndexContents() {
-			throw new UnsupportedOperationException();
+		/**
+		 * @param limited <code>true</code> if query filter is not combined with other filters, so its limit could be applied
+		 */
+		public Filter applyIndex(QueryFilter<I, Q> filter, Set<Object> keys, boolean limited) {
+			if (stats == null) {
+				return applyIndexInternal(filter, keys, limited);
+			}
+			else {
+				long start = System.nanoTime();
+				try {
+					return applyIndexInternal(filter, keys, limited);
+				}
+				finally {
+					stats.queryTime.record(System.nanoTime() - start);
+				}
+			}
 		}
 
-		@Override
-		public ValueExtractor getValueExtractor() {
-			return attributeExtrator;
+		private Filter applyIndexInternal(QueryFilter<I, Q> filter, Set<Object> keys, boolean limited) {
+			int limit = limited ? filter.getLimit() : 0;
+			completeBulkLoad();
+			if (!indexReady) {
+				// index is being built, all keys should be evaluated
+				if (stats != null) {
+					stats.scanFallbacks.increment();
+				}
+				return filter;
+			}
+			if (staleIndexQuery && pendingUpdates != null) {
+				return applyIndexWithPending(filter, keys, limit);
+			}
+			// only updates required by query should be applied
+			flushUpTo(getRequiredSequence(filter));
+			boolean dirty;
+			indexLock.readLock().lock();
+			try {
+				dirty = applyQuery(filter.getQuery(), limit, keys);
+			}
+			finally {
+				indexLock.readLock().unlock();
+			}
+			if (dirty) {
+				return filter;
+			}
+			else {
+				return null;
+			}
 		}
 
-		@Override
-		public boolean isOrdered() {
-			return false;
+		/**
+		 * Queries index without flushing. Keys with pending updates are excluded
+		 * from index lookup and evaluated against their latest pending values instead.
+		 */
+		private Filter applyIndexWithPending(QueryFilter<I, Q> filter, Set<Object> keys, int limit) {
+			long required = getRequiredSequence(filter);
+			if (queryWaitTimeout > 0 && required > 0) {
+				// give background flush a chance to catch up, fewer keys would be evaluated directly
+				try {
+					awaitWatermark(required, queryWaitTimeout);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			Q query = filter.getQuery();
+			boolean dirty;
+			indexLock.readLock().lock();
+			try {
+				Map<Object, IndexUpdateEvent> pending = new HashMap<Object, IndexUpdateEvent>();
+				pendingUpdates.collectPending(pending);
+				List<Object> matched = new ArrayList<Object>();
+				for(IndexUpdateEvent event: pending.values()) {
+					if (keys.remove(event.getKey())) {
+						Type type = event.getType();
+						if (type == Type.INSERT || type == Type.UPDATE) {
+							if (psi.evaluate(query, event.getValue())) {
+								matched.add(event.getKey());
+							}
+						}
+					}
+				}
+				dirty = applyToIndex(query, keys) && !exactResults;
+				keys.addAll(matched);
+			}
+			finally {
+				indexLock.readLock().unlock();
+			}
+			if (limit > 0 && !dirty) {
+				// index lookup itself is not limited, result is truncated as in applyQuery()
+				truncate(keys, limit);
+			}
+			return dirty ? filter : null;
 		}
 
-		@Override
-		public boolean isPartial() {
-			return false;
+		/**
+		 * @return update sequence number index should reach before query, 0 if query accepts index as is
+		 */
+		private long getRequiredSequence(QueryFilter<I, Q> filter) {
+			long required = filter.getRequiredSequence();
+			if (required == QueryFilter.LAST_UPDATE) {
+				return getLastUpdateSequence();
+			}
+			else if (required < 0) {
+				return 0;
+			}
+			else {
+				// sequence could not be ahead of updates accepted by this engine
+				return Math.min(required, getLastUpdateSequence());
+			}
 		}
 
-		@Override
-		public Binary ensureBinaryKey(Object key) {
-			if (key instanceof Binary) {
-				return (Binary) key;
+		public int calculateEffectiveness(QueryFilter<I, Q> filter, Set<Object> keys) {
+			if (stats == null) {
+				return calculateEffectivenessInternal(filter, keys);
 			}
 			else {
-				// TODO proper serializer support
-				if (serializer != null) {
-					return ExternalizableHelper.toBinary(key, serializer);
+				long start = System.nanoTime();
+				try {
+					return calculateEffectivenessInternal(filter, keys);
 				}
-				else {
-					return ExternalizableHelper.toBinary(key);
+				finally {
+					stats.effectivenessTime.record(System.nanoTime() - start);
 				}
 			}
 		}
 
-		@Override
-		public Object ensureObjectKey(Object key) {
-			if (key instanceof Binary) {
-				if (serializer != null) {
-					return ExternalizableHelper.fromBinary((Binary) key, serializer);
+		private int calculateEffectivenessInternal(QueryFilter<I, Q> filter, Set<Object> keys) {
+			completeBulkLoad();
+			if (!indexReady) {
+				// same as if there were no index
+				return 100 * keys.size();
+			}
+			if (staleIndexQuery && pendingUpdates != null) {
+				indexLock.readLock().lock();
+				try {
+					// each pending key would be evaluated directly
+					return calculateIndexEffectiveness(filter.getQuery(), keys) + pendingUpdates.size();
 				}
-				else {
-					return ExternalizableHelper.fromBinary((Binary) key);
+				finally {
+					indexLock.readLock().unlock();
 				}
 			}
-			else {
-				// TODO proper serializer support
-				return key;
+			flushUpTo(getRequiredSequence(filter));
+			indexLock.readLock().lock();
+			try {
+				return calculateIndexEffectiveness(filter.getQuery(), keys);
+			}
+			finally {
+				indexLock.readLock().unlock();
 			}
 		}
-		
 
 		@Override
-		public Object ensureFilterCompatibleKey(Object key) {
-			if (binaryMode) {
-				return ensureBinaryKey(key);
+		public <R> R callCoreIndex(SearchIndexCallable<I, R> callable) {
+			if (partitionIndexes != null) {
+				throw new UnsupportedOperationException("Index is split by partition, there is no core index");
 			}
-			else {
-				return ensureObjectKey(key);
+			completeBulkLoad();
+			awaitIndexReady(INDEX_READY_TIMEOUT);
+			flushUpTo(getLastUpdateSequence());
+			indexLock.readLock().lock();
+			try {
+				return callable.execute(coreIndex);
+			}
+			finally {
+				indexLock.readLock().unlock();
 			}
 		}
 
-		@Override
-		public Object getRawAttribute(Object key) {
-			if (attributeIndex != null) {
-				// TODO ensure compatible key format
-				return attributeIndex.get(key);
+		/**
+		 * Reusable single event change set for synchronous updates.
+		 */
+		private static class SingleEventBatch extends AbstractMap<Object, IndexUpdateEvent> {
+
+			final IndexUpdateEvent event = new IndexUpdateEvent(null, null, null, null);
+
+			private final Entry<Object, IndexUpdateEvent> entry = new Entry<Object, IndexUpdateEvent>() {
+
+				@Override
+				public Object getKey() {
+					return event.getKey();
+				}
+
+				@Override
+				public IndexUpdateEvent getValue() {
+					return event;
+				}
+
+				@Override
+				public IndexUpdateEvent setValue(IndexUpdateEvent value) {
+					throw new UnsupportedOperationException();
+				}
+			};
+
+			private final Set<Entry<Object, IndexUpdateEvent>> entrySet = new AbstractSet<Entry<Object, IndexUpdateEvent>>() {
+
+				@Override
+				public Iterator<Entry<Object, IndexUpdateEvent>> iterator() {
+					// small short lived object, usually eliminated by escape analysis
+					return new Iterator<Entry<Object,IndexUpdateEvent>>() {
+
+						boolean done;
+
+						@Override
+						public boolean hasNext() {
+							return !done;
+						}
+
+						@Override
+						public Entry<Object, IndexUpdateEvent> next() {
+							if (done) {
+								throw new NoSuchElementException();
+							}
+							done = true;
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return 1;
+				}
+			};
+
+			@Override
+			public IndexUpdateEvent get(Object key) {
+				return event.getKey().equals(key) ? event : null;
 			}
-			throw new UnsupportedOperationException("Raw attribute index is not configured");
-		}
-		
-		
-		
-		public Filter applyIndex(QueryFilter<I, Q> filter, Set<Object> keys) {
-			flush();
-			boolean dirty = psi.applyIndex(coreIndex, filter.getQuery(), keys, this);
-			if (dirty) {
-				return filter;
+
+			@Override
+			public boolean containsKey(Object key) {
+				return event.getKey().equals(key);
 			}
-			else {
-				return null;
+
+			@Override
+			public int size() {
+				return 1;
+			}
+
+			@Override
+			public Set<Entry<Object, IndexUpdateEvent>> entrySet() {
+				return entrySet;
 			}
 		}
 
-		public int calculateEffectiveness(QueryFilter<I, Q> filter, Set<Object> keys) {
-			flush();
-			return psi.calculateEffectiveness(coreIndex, filter.getQuery(), keys, this);
+		private static interface IndexFactory<I> {
+			public I createIndex();
 		}
 
-		@Override
-		public synchronized <R> R callCoreIndex(SearchIndexCallable<I, R> callable) {
-			flush();
-			return callable.execute(coreIndex);
+		private static class PartitionIndex<I> {
+
+			final I index;
+			KeyDictionary dictionary;
+			// keys in partition, tracked only if there is no dictionary
+			Set<Object> keys;
+			IndexInvocationContext context;
+
+			public PartitionIndex(I index) {
+				this.index = index;
+			}
+
+			int size() {
+				return dictionary != null ? dictionary.size() : keys.size();
+			}
+
+			boolean contains(Object key) {
+				return dictionary != null ? dictionary.getId(key) >= 0 : keys.contains(key);
+			}
+		}
+
+		/**
+		 * Context with its own key dictionary, used for partition sub-indexes
+		 * and for index being restored from snapshot.
+		 */
+		private class DictionaryContext implements KeyDictionaryContext {
+
+			private final KeyDictionary dictionary;
+
+			public DictionaryContext(KeyDictionary dictionary) {
+				this.dictionary = dictionary;
+			}
+
+			@Override
+			public Binary ensureBinaryKey(Object key) {
+				return SearchIndexEngine.this.ensureBinaryKey(key);
+			}
+
+			@Override
+			public Object ensureObjectKey(Object key) {
+				return SearchIndexEngine.this.ensureObjectKey(key);
+			}
+
+			@Override
+			public Object ensureFilterCompatibleKey(Object key) {
+				return SearchIndexEngine.this.ensureFilterCompatibleKey(key);
+			}
+
+			@Override
+			public Object getRawAttribute(Object key) {
+				return SearchIndexEngine.this.getRawAttribute(key);
+			}
+
+			@Override
+			public KeyDictionary getKeyDictionary() {
+				return dictionary;
+			}
 		}
 	}
 	
@@ -461,20 +2175,17 @@ public class SearchFactory<I, IC, Q> {
 		}
 
 		//Override in Coherence 3.6
-		@SuppressWarnings("unchecked")
 		public MapIndex createIndex(boolean sorted, Comparator comparator, Map indexMap) {
-			SearchIndexEngine<I, Q> engine = new SearchIndexEngine<I, Q>(psi.createIndexInstance(indexConfiguration), extractor, psi);
-			engine.init(engineConfig, indexMap);
-			indexMap.put(this, engine);
-			return engine;
+			return createIndex(sorted, comparator, indexMap, null);
 		}
-		
-		
 
 		//@Override in Coherence 3.7
+		@SuppressWarnings("unchecked")
 		public MapIndex createIndex(boolean sorted, Comparator comparator, Map indexMap, BackingMapContext backingMapContext) {
-			// TODO use backing map information to full extent
-			return createIndex(sorted, comparator, indexMap);
+			SearchIndexEngine<I, Q> engine = new SearchIndexEngine<I, Q>(psi, indexConfiguration, extractor);
+			engine.init(engineConfig, indexMap, backingMapContext, token);
+			indexMap.put(this, engine);
+			return engine;
 		}
 
 		@Override
@@ -493,6 +2204,10 @@ public class SearchFactory<I, IC, Q> {
 			return extractor.extract(object);
 		}
 
+		public Object extractFromEntry(Map.Entry entry) {
+			return CohIndexHelper.extractFromEntryOrValue(entry, extractor);
+		}
+
 		public PlugableSearchIndex<I, IC, Q> getPSI() {
 			return psi;
 		}
@@ -523,17 +2238,40 @@ public class SearchFactory<I, IC, Q> {
 		
 		private static final long serialVersionUID = 20100813L;
 
+		/**
+		 * Query should see all updates accepted before it has started, pending updates are applied first.
+		 */
+		public static final long LAST_UPDATE = 0;
+		/**
+		 * Query accepts index as is, pending updates are neither applied nor waited for.
+		 */
+		public static final long APPLIED_WATERMARK = -1;
+
 		protected SearchIndexExtractor<I, ?, Q> extractor;
 		// Lucene 4.0 requires some trickery
 		protected Object query;
+		// number of keys required by caller, 0 - unlimited
+		protected int limit;
+		// update sequence query should see, see LAST_UPDATE and APPLIED_WATERMARK
+		protected long requiredSequence;
 		
 		public QueryFilter() {
 			// serialization
 		}
 		
 		public QueryFilter(SearchIndexExtractor<I, ?, Q> extractor, Object query) {
+			this(extractor, query, 0);
+		}
+
+		public QueryFilter(SearchIndexExtractor<I, ?, Q> extractor, Object query, int limit) {
+			this(extractor, query, limit, LAST_UPDATE);
+		}
+
+		public QueryFilter(SearchIndexExtractor<I, ?, Q> extractor, Object query, int limit, long requiredSequence) {
 			this.extractor = extractor;
 			this.query = query;
+			this.limit = limit;
+			this.requiredSequence = requiredSequence;
 		}
 
 		@Override
@@ -543,6 +2281,8 @@ public class SearchFactory<I, IC, Q> {
 			result = prime * result
 					+ ((extractor == null) ? 0 : extractor.hashCode());
 			result = prime * result + ((query == null) ? 0 : query.hashCode());
+			result = prime * result + limit;
+			result = prime * result + (int) (requiredSequence ^ (requiredSequence >>> 32));
 			return result;
 		}
 
@@ -565,6 +2305,10 @@ public class SearchFactory<I, IC, Q> {
 					return false;
 			} else if (!query.equals(other.query))
 				return false;
+			if (limit != other.limit)
+				return false;
+			if (requiredSequence != other.requiredSequence)
+				return false;
 			return true;
 		}
 
@@ -576,14 +2320,28 @@ public class SearchFactory<I, IC, Q> {
 		protected Object getRawQuery() {
 			return query;
 		}
+
+		public int getLimit() {
+			return limit;
+		}
+
+		public long getRequiredSequence() {
+			return requiredSequence;
+		}
 		
 		@Override
-		@SuppressWarnings("unchecked")
+		@SuppressWarnings("rawtypes")
 		public Filter applyIndex(Map indexes, Set keys) {
+			// filter may be combined with others, so limit is not safe to apply
+			return applyIndex(indexes, keys, false);
+		}
+
+		@SuppressWarnings("unchecked")
+		Filter applyIndex(Map indexes, Set keys, boolean limited) {
 			MapIndex index = (MapIndex) indexes.get(extractor);
 			if (index != null) {
 				SearchIndexEngine engine = (SearchIndexEngine) index;
-				return engine.applyIndex(this, keys);
+				return engine.applyIndex(this, keys, limited);
 			}
 			else {
 				return this;
@@ -606,7 +2364,7 @@ public class SearchFactory<I, IC, Q> {
 
 		@Override
 		public boolean evaluateEntry(Entry entry) {
-			return evaluate(entry.getValue());
+			return extractor.getPSI().evaluate(getQuery(), extractor.extractFromEntry(entry));
 		}
 
 		@Override
@@ -614,4 +2372,81 @@ public class SearchFactory<I, IC, Q> {
 			return extractor.getPSI().evaluate(getQuery(), extractor.extract(object));
 		}
 	}
+
+	/**
+	 * Marker filter sent by {@link SearchFactory#createIndex(NamedCache)} after index is added.
+	 * It tells each storage member that initial population of index is over, so bulk build could start.
+	 * Filter never matches anything.
+	 */
+	static class PopulationCompleteFilter<I, Q> implements IndexAwareFilter, Serializable {
+
+		private static final long serialVersionUID = 20111020L;
+
+		protected SearchIndexExtractor<I, ?, Q> extractor;
+		
+		public PopulationCompleteFilter() {
+			// serialization
+		}
+
+		public PopulationCompleteFilter(SearchIndexExtractor<I, ?, Q> extractor) {
+			this.extractor = extractor;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Filter applyIndex(Map indexes, Set keys) {
+			MapIndex index = (MapIndex) indexes.get(extractor);
+			if (index != null) {
+				((SearchIndexEngine) index).signalPopulationComplete();
+			}
+			keys.clear();
+			return null;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public int calculateEffectiveness(Map indexes, Set keys) {
+			return 1;
+		}
+
+		@Override
+		public boolean evaluateEntry(Entry entry) {
+			return false;
+		}
+
+		@Override
+		public boolean evaluate(Object object) {
+			return false;
+		}
+	}
+
+	/**
+	 * {@link LimitFilter} which lets wrapped {@link QueryFilter} apply its limit inside of index.
+	 * Limit is safe only if query filter is not combined with other filters, which holds
+	 * for filter wrapped directly (see {@link SearchFactory#createLimitFilter(Object, int, int)}).
+	 */
+	public static class QueryLimitFilter extends LimitFilter {
+
+		private static final long serialVersionUID = 20111020L;
+
+		public QueryLimitFilter() {
+			// serialization
+		}
+
+		public QueryLimitFilter(QueryFilter<?, ?> filter, int pageSize) {
+			super(filter, pageSize);
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public Filter applyIndex(Map indexes, Set keys) {
+			Filter filter = getFilter();
+			if (filter instanceof QueryFilter) {
+				return ((QueryFilter<?, ?>) filter).applyIndex(indexes, keys, true);
+			}
+			else {
+				return super.applyIndex(indexes, keys);
+			}
+		}
+	}
 }
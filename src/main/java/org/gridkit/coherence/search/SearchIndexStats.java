@@ -0,0 +1,273 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.gridkit.coherence.search.SearchFactory.SearchIndexEngine;
+
+import com.tangosol.net.CacheFactory;
+
+/**
+ * Statistics of single {@link SearchIndexEngine}, exposed as MBean
+ * (see {@link IndexEngineConfig#isJmxEnabled()}).
+ * <br/>
+ * Recording is lock free and cheap enough for hot path, see {@link StripedCounter}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class SearchIndexStats implements SearchIndexStatsMBean {
+
+	public static final String DOMAIN = "org.gridkit.coherence.search";
+
+	private static final double NS_IN_US = 1000d;
+	private static final double NS_IN_MS = 1000000d;
+
+	private final SearchIndexEngine<?, ?> engine;
+	private final String cacheName;
+	private final String indexToken;
+	private ObjectName objectName;
+	// merge counter lives in update buffer, it is not reset
+	private volatile long coalescedBase;
+
+	final LatencyHistogram enqueueTime = new LatencyHistogram();
+	final LatencyHistogram flushTime = new LatencyHistogram();
+	final StripedCounter flushedEvents = new StripedCounter(1);
+	final LatencyHistogram queryTime = new LatencyHistogram();
+	final LatencyHistogram effectivenessTime = new LatencyHistogram();
+	final StripedCounter resultCacheHits = new StripedCounter();
+	final StripedCounter resultCacheMisses = new StripedCounter();
+	final StripedCounter scanFallbacks = new StripedCounter();
+
+	SearchIndexStats(SearchIndexEngine<?, ?> engine, String cacheName, String indexToken) {
+		this.engine = engine;
+		this.cacheName = cacheName;
+		this.indexToken = indexToken;
+	}
+
+	void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":type=SearchIndex,cache=" + ObjectName.quote(cacheName) + ",index=" + ObjectName.quote(indexToken));
+			try {
+				server.registerMBean(this, name);
+			}
+			catch(InstanceAlreadyExistsException e) {
+				// same cache on several members in one JVM
+				name = new ObjectName(name.toString() + ",instance=" + Integer.toHexString(System.identityHashCode(this)));
+				server.registerMBean(this, name);
+			}
+			objectName = name;
+		}
+		catch(Exception e) {
+			CacheFactory.log("Failed to register index MBean for " + cacheName + ": " + e.toString(), CacheFactory.LOG_ERR);
+		}
+	}
+
+	void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+			catch(Exception e) {
+				// ignore
+			}
+			objectName = null;
+		}
+	}
+
+	void recordFlush(int events, long durationNs) {
+		flushTime.record(durationNs);
+		flushedEvents.add(events);
+	}
+
+	@Override
+	public String getCacheName() {
+		return cacheName;
+	}
+
+	@Override
+	public String getIndexToken() {
+		return indexToken;
+	}
+
+	@Override
+	public int getPendingUpdates() {
+		return engine.getPendingUpdateCount();
+	}
+
+	@Override
+	public long getLastUpdateSequence() {
+		return engine.getLastUpdateSequence();
+	}
+
+	@Override
+	public long getAppliedWatermark() {
+		return engine.getAppliedWatermark();
+	}
+
+	@Override
+	public long getIndexedKeyCount() {
+		return engine.getIndexedKeyCount();
+	}
+
+	@Override
+	public long getEnqueueCount() {
+		return enqueueTime.getCount();
+	}
+
+	@Override
+	public long getCoalescedCount() {
+		return engine.getCoalescedUpdateCount() - coalescedBase;
+	}
+
+	@Override
+	public double getCoalesceRatio() {
+		long count = getEnqueueCount();
+		return count == 0 ? 0 : ((double)getCoalescedCount()) / count;
+	}
+
+	@Override
+	public double getEnqueueTimeAvgUs() {
+		return enqueueTime.getAverageNs() / NS_IN_US;
+	}
+
+	@Override
+	public long[] getEnqueueTimeHistogram() {
+		return enqueueTime.getBuckets();
+	}
+
+	@Override
+	public long getFlushCount() {
+		return flushTime.getCount();
+	}
+
+	@Override
+	public long getFlushedEventCount() {
+		return flushedEvents.sum();
+	}
+
+	@Override
+	public double getFlushBatchAvg() {
+		long count = getFlushCount();
+		return count == 0 ? 0 : ((double)getFlushedEventCount()) / count;
+	}
+
+	@Override
+	public double getFlushTimeAvgMs() {
+		return flushTime.getAverageNs() / NS_IN_MS;
+	}
+
+	@Override
+	public double getFlushTime99Ms() {
+		return flushTime.getPercentileNs(99) / NS_IN_MS;
+	}
+
+	@Override
+	public long[] getFlushTimeHistogram() {
+		return flushTime.getBuckets();
+	}
+
+	@Override
+	public long getQueryCount() {
+		return queryTime.getCount();
+	}
+
+	@Override
+	public double getQueryTimeAvgMs() {
+		return queryTime.getAverageNs() / NS_IN_MS;
+	}
+
+	@Override
+	public double getQueryTime99Ms() {
+		return queryTime.getPercentileNs(99) / NS_IN_MS;
+	}
+
+	@Override
+	public long[] getQueryTimeHistogram() {
+		return queryTime.getBuckets();
+	}
+
+	@Override
+	public long getEffectivenessCount() {
+		return effectivenessTime.getCount();
+	}
+
+	@Override
+	public double getEffectivenessTimeAvgMs() {
+		return effectivenessTime.getAverageNs() / NS_IN_MS;
+	}
+
+	@Override
+	public long[] getEffectivenessTimeHistogram() {
+		return effectivenessTime.getBuckets();
+	}
+
+	@Override
+	public long getResultCacheHitCount() {
+		return resultCacheHits.sum();
+	}
+
+	@Override
+	public long getResultCacheMissCount() {
+		return resultCacheMisses.sum();
+	}
+
+	@Override
+	public boolean isIndexReady() {
+		return engine.isIndexReady();
+	}
+
+	@Override
+	public long getScanFallbackCount() {
+		return scanFallbacks.sum();
+	}
+
+	@Override
+	public String[] getIndexStructureStats() {
+		Map<String, Number> stats = engine.getIndexStructureStats();
+		String[] result = new String[stats.size()];
+		int n = 0;
+		for(Map.Entry<String, Number> stat: stats.entrySet()) {
+			result[n++] = stat.getKey() + "=" + stat.getValue();
+		}
+		return result;
+	}
+
+	@Override
+	public void resetStatistics() {
+		enqueueTime.reset();
+		flushTime.reset();
+		flushedEvents.reset();
+		queryTime.reset();
+		effectivenessTime.reset();
+		resultCacheHits.reset();
+		resultCacheMisses.reset();
+		scanFallbacks.reset();
+		coalescedBase = engine.getCoalescedUpdateCount();
+	}
+
+	@Override
+	public void writeSnapshot() throws IOException {
+		engine.writeSnapshot();
+	}
+}
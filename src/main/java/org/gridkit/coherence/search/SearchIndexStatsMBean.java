@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.io.IOException;
+
+/**
+ * JMX view of single search index engine.
+ * <br/>
+ * Latency histograms are arrays of power of two buckets, bucket <code>i</code>
+ * counts operations which took less than 2<sup>i</sup> ns and at least 2<sup>i-1</sup> ns.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface SearchIndexStatsMBean {
+
+	public String getCacheName();
+
+	public String getIndexToken();
+
+	/**
+	 * @return number of distinct keys waiting in update queue
+	 */
+	public int getPendingUpdates();
+
+	public long getLastUpdateSequence();
+
+	public long getAppliedWatermark();
+
+	/**
+	 * @return number of keys in index, -1 if unknown
+	 */
+	public long getIndexedKeyCount();
+
+	public long getEnqueueCount();
+
+	/**
+	 * @return number of updates merged with pending update of same key
+	 */
+	public long getCoalescedCount();
+
+	/**
+	 * @return share of enqueued updates which were merged and never applied separately
+	 */
+	public double getCoalesceRatio();
+
+	public double getEnqueueTimeAvgUs();
+
+	public long[] getEnqueueTimeHistogram();
+
+	public long getFlushCount();
+
+	/**
+	 * @return total number of events applied to index by flushes
+	 */
+	public long getFlushedEventCount();
+
+	public double getFlushBatchAvg();
+
+	public double getFlushTimeAvgMs();
+
+	public double getFlushTime99Ms();
+
+	public long[] getFlushTimeHistogram();
+
+	public long getQueryCount();
+
+	public double getQueryTimeAvgMs();
+
+	public double getQueryTime99Ms();
+
+	public long[] getQueryTimeHistogram();
+
+	public long getEffectivenessCount();
+
+	public double getEffectivenessTimeAvgMs();
+
+	public long[] getEffectivenessTimeHistogram();
+
+	/**
+	 * @return number of queries answered from result cache (see {@link IndexEngineConfig#getQueryResultCacheSize()})
+	 */
+	public long getResultCacheHitCount();
+
+	public long getResultCacheMissCount();
+
+	/**
+	 * @return <code>false</code> while index is being built (see {@link IndexEngineConfig#isBackgroundIndexBuildEnabled()})
+	 */
+	public boolean isIndexReady();
+
+	/**
+	 * @return number of queries evaluated against cache content, because index was not built yet
+	 */
+	public long getScanFallbackCount();
+
+	/**
+	 * @return index structure statistics as <code>name=value</code> strings,
+	 *         available if plugin implements {@link StatisticsAwareSearchIndex}
+	 */
+	public String[] getIndexStructureStats();
+
+	public void resetStatistics();
+
+	/**
+	 * Writes index snapshot, if snapshots are enabled.
+	 */
+	public void writeSnapshot() throws IOException;
+
+}
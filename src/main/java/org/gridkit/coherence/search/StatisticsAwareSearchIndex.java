@@ -0,0 +1,38 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.util.Map;
+
+/**
+ * Optional SPI interface, which could be implemented by {@link PlugableSearchIndex}
+ * to expose statistics of index structure (e.g. number of terms) via JMX.
+ * <br/>
+ * Engine calls it under index read lock. In partitioned mode values
+ * from all sub-indexes are summed.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ *
+ * @param <I> type of index instance
+ */
+public interface StatisticsAwareSearchIndex<I> {
+
+	/**
+	 * @return map of statistic name to its value
+	 */
+	public Map<String, Number> getIndexStatistics(I index);
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free counter for statistics. Threads are spread across padded cells,
+ * so concurrent writers rarely share cache line. Reading sums all cells.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class StripedCounter {
+
+	// 8 longs per cell, one cache line
+	private static final int PAD = 8;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter() {
+		this(defaultStripes());
+	}
+
+	public StripedCounter(int stripes) {
+		int n = 1;
+		while(n < stripes) {
+			n <<= 1;
+		}
+		cells = new AtomicLongArray(n * PAD);
+		mask = n - 1;
+	}
+
+	static int defaultStripes() {
+		return Math.min(16, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	static int threadHash() {
+		long id = Thread.currentThread().getId();
+		return (int)(id ^ (id >>> 7));
+	}
+
+	public void add(long delta) {
+		cells.addAndGet((threadHash() & mask) * PAD, delta);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for(int i = 0; i < cells.length(); i += PAD) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for(int i = 0; i < cells.length(); i += PAD) {
+			cells.set(i, 0);
+		}
+	}
+}
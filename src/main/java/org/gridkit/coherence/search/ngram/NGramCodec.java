@@ -0,0 +1,256 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search.ngram;
+
+import java.util.Arrays;
+
+/**
+ * Maps n-grams to <code>long</code> codes, so index structures
+ * do not need to keep n-gram strings.
+ * <br/>
+ * For n-grams up to 3 chars code is n-gram itself packed into 16 bit lanes,
+ * n-grams shorter than n (whole text of short document) are padded with <code>U+FFFF</code>
+ * (Unicode noncharacter, it should not be present in indexed texts).
+ * No strings are created to index or look up such n-grams.
+ * <br/>
+ * Longer n-grams are interned, codes are released once n-gram is gone from index.
+ * Only registration of new n-gram creates string.
+ * <br/>
+ * Valid codes are never negative, so {@link #UNKNOWN} could not clash with any n-gram.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+abstract class NGramCodec {
+
+    // packed codes take at most 48 bits, interned codes are int indexes
+    static final long UNKNOWN = -1;
+
+    static NGramCodec create(int ngramSize) {
+        return ngramSize <= Packed.MAX_SIZE ? new Packed(ngramSize) : new Interned();
+    }
+
+    /**
+     * @return code of n-gram <code>text[start, end)</code> or {@link #UNKNOWN} if n-gram has no code yet
+     */
+    public abstract long lookUp(String text, int start, int end);
+
+    /**
+     * @return code of n-gram <code>text[start, end)</code>, new code is assigned if required
+     */
+    public abstract long register(String text, int start, int end);
+
+    /**
+     * Called once n-gram is removed from index, code may be reused.
+     */
+    public abstract void release(long code);
+
+    public abstract String decode(long code);
+
+    /**
+     * @return <code>true</code> if n-gram contains substring
+     */
+    public abstract boolean contains(long code, String substring);
+
+    static class Packed extends NGramCodec {
+
+        // 4 chars would take all 64 bits and could produce UNKNOWN
+        static final int MAX_SIZE = 3;
+        private static final int PAD = 0xFFFF;
+
+        private final int ngramSize;
+
+        Packed(int ngramSize) {
+            this.ngramSize = ngramSize;
+        }
+
+        @Override
+        public long lookUp(String text, int start, int end) {
+            long code = 0;
+            for(int i = 0; i != ngramSize; ++i) {
+                int ch = start + i < end ? text.charAt(start + i) : PAD;
+                code = (code << 16) | ch;
+            }
+            return code;
+        }
+
+        @Override
+        public long register(String text, int start, int end) {
+            return lookUp(text, start, end);
+        }
+
+        @Override
+        public void release(long code) {
+            // stateless
+        }
+
+        private int length(long code) {
+            int len = ngramSize;
+            while(len > 0 && charAt(code, len - 1) == PAD) {
+                --len;
+            }
+            return len;
+        }
+
+        private int charAt(long code, int n) {
+            return (int)((code >>> (16 * (ngramSize - 1 - n))) & 0xFFFF);
+        }
+
+        @Override
+        public String decode(long code) {
+            char[] chars = new char[length(code)];
+            for(int i = 0; i != chars.length; ++i) {
+                chars[i] = (char)charAt(code, i);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public boolean contains(long code, String substring) {
+            int len = length(code);
+            for(int i = 0; i + substring.length() <= len; ++i) {
+                int j = 0;
+                while(j < substring.length() && charAt(code, i + j) == substring.charAt(j)) {
+                    ++j;
+                }
+                if (j == substring.length()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static class Interned extends NGramCodec {
+
+        // open addressing table of codes, slot holds code + 1, 0 marks empty slot
+        private int[] table = new int[16];
+        private String[] ngrams = new String[16];
+        private int[] freeCodes = new int[16];
+        private int freeCount;
+        private int codeLimit;
+
+        @Override
+        public long lookUp(String text, int start, int end) {
+            int slot = find(text, start, end);
+            return slot < 0 ? UNKNOWN : table[slot] - 1;
+        }
+
+        @Override
+        public long register(String text, int start, int end) {
+            int slot = find(text, start, end);
+            if (slot >= 0) {
+                return table[slot] - 1;
+            }
+            if (2 * (codeLimit - freeCount + 1) > table.length) {
+                rehash(2 * table.length);
+            }
+            int c = freeCount > 0 ? freeCodes[--freeCount] : codeLimit++;
+            if (c >= ngrams.length) {
+                ngrams = Arrays.copyOf(ngrams, 2 * ngrams.length);
+            }
+            ngrams[c] = text.substring(start, end);
+            insert(c);
+            return c;
+        }
+
+        @Override
+        public void release(long code) {
+            String ngram = ngrams[(int)code];
+            if (ngram != null) {
+                int slot = find(ngram, 0, ngram.length());
+                table[slot] = 0;
+                shiftBack(slot);
+                ngrams[(int)code] = null;
+                if (freeCount == freeCodes.length) {
+                    freeCodes = Arrays.copyOf(freeCodes, 2 * freeCount);
+                }
+                freeCodes[freeCount++] = (int)code;
+            }
+        }
+
+        @Override
+        public String decode(long code) {
+            return ngrams[(int)code];
+        }
+
+        @Override
+        public boolean contains(long code, String substring) {
+            return ngrams[(int)code].indexOf(substring) >= 0;
+        }
+
+        /**
+         * @return slot of n-gram <code>text[start, end)</code> or -1
+         */
+        private int find(String text, int start, int end) {
+            int mask = table.length - 1;
+            int slot = hash(text, start, end) & mask;
+            while(table[slot] != 0) {
+                String ngram = ngrams[table[slot] - 1];
+                if (ngram.length() == end - start && ngram.regionMatches(0, text, start, end - start)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(int code) {
+            String ngram = ngrams[code];
+            int mask = table.length - 1;
+            int slot = hash(ngram, 0, ngram.length()) & mask;
+            while(table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+
+        /**
+         * Moves entries following freed slot, so lookups do not stop at it (same as {@link NGramTable}).
+         */
+        private void shiftBack(int free) {
+            int mask = table.length - 1;
+            int slot = (free + 1) & mask;
+            while(table[slot] != 0) {
+                String ngram = ngrams[table[slot] - 1];
+                int home = hash(ngram, 0, ngram.length()) & mask;
+                if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                    table[free] = table[slot];
+                    table[slot] = 0;
+                    free = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void rehash(int capacity) {
+            table = new int[capacity];
+            for(int c = 0; c != codeLimit; ++c) {
+                if (ngrams[c] != null) {
+                    insert(c);
+                }
+            }
+        }
+
+        private static int hash(String text, int start, int end) {
+            int h = 0;
+            for(int i = start; i != end; ++i) {
+                h = 31 * h + text.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
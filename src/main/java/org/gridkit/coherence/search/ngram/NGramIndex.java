@@ -16,115 +16,530 @@
 
 package org.gridkit.coherence.search.ngram;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Reference implementation of custom index.
+ * Documents are referred by dense IDs (see {@link org.gridkit.coherence.search.KeyDictionary}),
+ * n-grams are referred by primitive codes (see {@link NGramCodec}).
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 public class NGramIndex {
 
     final int ngramSize;
-    final Map<String, NGramRefList> index = new HashMap<String, NGramRefList>();
-    final Map<Object, String[]> extract = new HashMap<Object, String[]>();  
+    final NGramCodec codec;
+    final NGramTable<NGramRefList> index = new NGramTable<NGramRefList>();
+    // substrings shorter than n-gram -> posting lists of n-grams containing them
+    final Map<String, Set<NGramRefList>> infixes = new HashMap<String, Set<NGramRefList>>();
+    // document ID -> n-gram codes of document
+    long[][] extract = new long[16][];
+    // IDs of documents added via deprecated key based methods, created on first use
+    private Map<Object, Integer> keyIds;
+    private List<Object> idKeys;
+    private List<Integer> freeKeyIds;
     
     public NGramIndex(int ngramSize) {
         this.ngramSize = ngramSize;
+        this.codec = NGramCodec.create(ngramSize);
     }
 
     public int getNGramSize() {
         return ngramSize;
     }
     
-    private String[] split(String string) {
+    private long[] split(String string) {
         if (string.length() == 0) {
             return null;
         }
         else if (string.length() <= ngramSize) {
-            return new String[]{string};
+            return new long[]{codec.register(string, 0, string.length())};
         }
         else {
             int n = string.length() - ngramSize + 1;
-            String[] split = new String[n];
+            long[] split = new long[n];
             for(int i = 0; i != n; ++i) {
-                split[i] = string.substring(i, i + ngramSize);
+                split[i] = codec.register(string, i, i + ngramSize);
             }
             return split;
         }
     }
     
-    public void insert(Object key, String text) {
-        String[] split = split(text);
+    public void insert(int docId, String text) {
+        long[] split = split(text);
         if (split != null) {            
-            updateIndex(key, split);
-            extract.put(key, normalize(split));
+            updateIndex(docId, split);
+            if (docId >= extract.length) {
+                extract = Arrays.copyOf(extract, Math.max(docId + 1, 2 * extract.length));
+            }
+            extract[docId] = split;
         }
     }
 
-    public void update(Object key, String text) {
-    	delete(key);
-    	insert(key, text);
+    public void update(int docId, String text) {
+    	delete(docId);
+    	insert(docId, text);
     }
     
-    public void delete(Object key) {
-    	String[] split = extract.get(key);
+    public void delete(int docId) {
+    	long[] split = getDocumentCodes(docId);
     	if (split != null) {
-    		for(String ngram : split) {
-    			removeFromIndex(ngram, key);
+    		for(long code : split) {
+    			removeFromIndex(code, docId);
     		}
+    		extract[docId] = null;
     	}
     }
 
-    private String[] normalize(String[] split) {
-        for(int i = 0 ; i != split.length; ++i) {
-            NGramRefList list = index.get(split[i]);
-            if (list != null) {
-                split[i] = list.ngram;
+    /**
+     * @deprecated documents are referred by IDs, use {@link #insert(int, String)}.
+     *             Key based and ID based methods should not be mixed for same index.
+     */
+    @Deprecated
+    public void insert(Object key, String text) {
+        insert(allocateKeyId(key), text);
+    }
+
+    /**
+     * @deprecated documents are referred by IDs, use {@link #update(int, String)}
+     */
+    @Deprecated
+    public void update(Object key, String text) {
+        update(allocateKeyId(key), text);
+    }
+
+    /**
+     * @deprecated documents are referred by IDs, use {@link #delete(int)}
+     */
+    @Deprecated
+    public void delete(Object key) {
+        Integer id = keyIds == null ? null : keyIds.remove(key);
+        if (id != null) {
+            delete(id.intValue());
+            idKeys.set(id, null);
+            freeKeyIds.add(id);
+        }
+    }
+
+    /**
+     * @return keys of documents containing n-gram
+     * @deprecated documents are referred by IDs, n-grams of document are available via {@link #getDocumentNGrams(int)}
+     */
+    @Deprecated
+    @SuppressWarnings("rawtypes")
+    public Collection lookUpNGram(String ngram) {
+        long code = ngram.length() > ngramSize ? NGramCodec.UNKNOWN : codec.lookUp(ngram, 0, ngram.length());
+        NGramRefList list = code == NGramCodec.UNKNOWN ? null : index.get(code);
+        if (list == null || idKeys == null) {
+            return Collections.EMPTY_SET;
+        }
+        List<Object> keys = new ArrayList<Object>(list.size());
+        for(int id: list.toArray()) {
+            Object key = id < idKeys.size() ? idKeys.get(id) : null;
+            if (key != null) {
+                keys.add(key);
             }
         }
-        return split;
+        return keys;
     }
 
-    private void updateIndex(Object key, String[] split) {
+    private int allocateKeyId(Object key) {
+        if (keyIds == null) {
+            keyIds = new HashMap<Object, Integer>();
+            idKeys = new ArrayList<Object>();
+            freeKeyIds = new ArrayList<Integer>();
+        }
+        Integer id = keyIds.get(key);
+        if (id == null) {
+            if (freeKeyIds.isEmpty()) {
+                id = idKeys.size();
+                idKeys.add(key);
+            }
+            else {
+                id = freeKeyIds.remove(freeKeyIds.size() - 1);
+                idKeys.set(id, key);
+            }
+            keyIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return n-grams of document in order of occurrence, or <code>null</code> if document is not indexed
+     */
+    public String[] getDocumentNGrams(int docId) {
+        long[] split = getDocumentCodes(docId);
+        if (split == null) {
+            return null;
+        }
+        String[] ngrams = new String[split.length];
         for(int i = 0; i != split.length; ++i) {
-            insertToIndex(split[i], key, i);
+            ngrams[i] = codec.decode(split[i]);
         }
+        return ngrams;
     }
 
+    /**
+     * @return n-gram codes of document in order of occurrence, or <code>null</code> if document is not indexed
+     */
+    long[] getDocumentCodes(int docId) {
+        return docId < extract.length ? extract[docId] : null;
+    }
 
-    
-    
-    private void insertToIndex(String ngram, Object key, int position) {
-        NGramRefList list = index.get(ngram);
+    /**
+     * Applies change set in bulk, each affected posting list is touched once.
+     * Updated documents should be present in both removed and added IDs.
+     * @param removed sorted IDs of documents to be removed
+     * @param added sorted IDs of documents to be added
+     * @param texts texts of added documents
+     */
+    public void bulkUpdate(int[] removed, int removedCount, int[] added, String[] texts, int addedCount) {
+        if (removedCount > 0) {
+            NGramTable<IdList> removals = new NGramTable<IdList>();
+            for(int i = 0; i != removedCount; ++i) {
+                int docId = removed[i];
+                long[] split = getDocumentCodes(docId);
+                if (split != null) {
+                    for(long code: split) {
+                        IdList ids = removals.get(code);
+                        if (ids == null) {
+                            ids = new IdList(code);
+                            removals.put(code, ids);
+                        }
+                        ids.add(docId);
+                    }
+                    extract[docId] = null;
+                }
+            }
+            for(IdList ids: removals.values()) {
+                NGramRefList list = index.get(ids.code);
+                if (list != null) {
+                    list.removeAll(ids.ids, ids.size);
+                    if (list.size() == 0) {
+                        removeNGram(ids.code);
+                    }
+                    else if (list.needsSparse()) {
+                        list.toSparse(extract);
+                    }
+                }
+            }
+        }
+        if (addedCount > 0) {
+            NGramTable<NGramRefList> additions = new NGramTable<NGramRefList>();
+            for(int i = 0; i != addedCount; ++i) {
+                long[] split = split(texts[i]);
+                if (split != null) {
+                    for(int p = 0; p != split.length; ++p) {
+                        NGramRefList batch = additions.get(split[p]);
+                        if (batch == null) {
+                            batch = new NGramRefList(split[p]);
+                            additions.put(batch.code, batch);
+                        }
+                        // documents are sorted, so this is an append
+                        batch.addRef(added[i], p);
+                    }
+                    int docId = added[i];
+                    if (docId >= extract.length) {
+                        extract = Arrays.copyOf(extract, Math.max(docId + 1, 2 * extract.length));
+                    }
+                    extract[docId] = split;
+                }
+            }
+            for(NGramRefList batch: additions.values()) {
+                NGramRefList list = index.get(batch.code);
+                if (list == null) {
+                    list = batch;
+                    addNGram(list);
+                }
+                else {
+                    list.mergeAll(batch);
+                }
+                if (list.needsDense()) {
+                    list.toDense();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes posting lists, forward data is restored from them.
+     * Positions of dense lists are taken from forward data, so format does not depend on list layout.
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(ngramSize);
+        List<NGramRefList> lists = index.values();
+        out.writeInt(lists.size());
+        for(NGramRefList list: lists) {
+            String ngram = codec.decode(list.code);
+            out.writeInt(ngram.length());
+            out.writeChars(ngram);
+            out.writeInt(list.size);
+            for(int doc: list.toArray()) {
+                out.writeInt(doc);
+                int[] pos = getPositions(list, doc);
+                out.writeInt(pos.length);
+                for(int p: pos) {
+                    out.writeInt(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Populates empty index from image written by {@link #writeSnapshot(DataOutput)}.
+     * Counts read from image are validated before anything is allocated, so corrupted image
+     * is reported as {@link IOException} instead of exhausting memory.
+     * @param docLimit all document IDs in image should be below this limit
+     */
+    public void readSnapshot(ByteBuffer image, int docLimit) throws IOException {
+        if (image.getInt() != ngramSize) {
+            throw new IOException("Snapshot has different n-gram size");
+        }
+        // number of n-grams in each document
+        int[] docLength = new int[16];
+        // number of positions in each document, each position is written exactly once
+        int[] docPositions = new int[16];
+        // each n-gram takes at least its length and posting count
+        int ngramCount = readCount(image, 8);
+        for(int n = 0; n != ngramCount; ++n) {
+            char[] chars = new char[readCount(image, 2)];
+            for(int i = 0; i != chars.length; ++i) {
+                chars[i] = image.getChar();
+            }
+            NGramRefList list = new NGramRefList(codec.register(new String(chars), 0, chars.length));
+            // each posting takes at least doc ID and position count
+            int size = readCount(image, 8);
+            list.docs = new int[Math.max(2, size)];
+            list.positions = new int[Math.max(2, size)][];
+            for(int i = 0; i != size; ++i) {
+                int doc = image.getInt();
+                if (doc < 0 || doc >= docLimit) {
+                    throw new IOException("Corrupted snapshot, document ID " + doc + " is out of range");
+                }
+                int[] pos = new int[readCount(image, 4)];
+                for(int j = 0; j != pos.length; ++j) {
+                    pos[j] = image.getInt();
+                    if (pos[j] < 0) {
+                        throw new IOException("Corrupted snapshot, negative position");
+                    }
+                }
+                list.docs[i] = doc;
+                list.positions[i] = pos;
+                if (doc >= docLength.length) {
+                    int len = Math.min(docLimit, Math.max(doc + 1, 2 * docLength.length));
+                    docLength = Arrays.copyOf(docLength, len);
+                    docPositions = Arrays.copyOf(docPositions, len);
+                }
+                for(int p: pos) {
+                    docLength[doc] = Math.max(docLength[doc], p + 1);
+                }
+                docPositions[doc] += pos.length;
+            }
+            list.size = size;
+            addNGram(list);
+        }
+        for(int doc = 0; doc != docLength.length; ++doc) {
+            // gaps in positions mean positions are corrupted, also keeps forward data bounded by image size
+            if (docLength[doc] != docPositions[doc]) {
+                throw new IOException("Corrupted snapshot, positions of document " + doc + " are inconsistent");
+            }
+        }
+        extract = new long[Math.max(16, docLength.length)][];
+        for(NGramRefList list: index.values()) {
+            for(int i = 0; i != list.size; ++i) {
+                int doc = list.docs[i];
+                long[] split = extract[doc];
+                if (split == null) {
+                    split = new long[docLength[doc]];
+                    extract[doc] = split;
+                }
+                for(int p: list.positions[i]) {
+                    split[p] = list.code;
+                }
+            }
+        }
+        // lists are read in sparse format, positions are required to restore forward data
+        for(NGramRefList list: index.values()) {
+            if (list.needsDense()) {
+                list.toDense();
+            }
+        }
+    }
+
+    private static int readCount(ByteBuffer image, int minElementSize) throws IOException {
+        int count = image.getInt();
+        if (count < 0 || (long)count * minElementSize > image.remaining()) {
+            throw new IOException("Corrupted snapshot, count " + count + " exceeds image size");
+        }
+        return count;
+    }
+
+    private void updateIndex(int docId, long[] split) {
+        for(int i = 0; i != split.length; ++i) {
+            insertToIndex(split[i], docId, i);
+        }
+    }
+
+    private void insertToIndex(long code, int docId, int position) {
+        NGramRefList list = index.get(code);
         if (list == null) {
-            list = new NGramRefList(new String(ngram));
-            index.put(list.ngram, list);
+            list = new NGramRefList(code);
+            addNGram(list);
         }
         
-        list.addRef(key, position);
+        list.addRef(docId, position);
+        if (list.needsDense()) {
+            list.toDense();
+        }
     }
     
-    private void removeFromIndex(String ngram, Object key) {
-        NGramRefList list = index.get(ngram);
+    private void removeFromIndex(long code, int docId) {
+        NGramRefList list = index.get(code);
+        if (list != null) {
+            list.removeRef(docId);
+            if (list.size() == 0) {
+                removeNGram(code);
+            }
+            else if (list.needsSparse()) {
+                list.toSparse(extract);
+            }
+        }
+    }
+
+    private void addNGram(NGramRefList list) {
+        index.put(list.code, list);
+        // infixes are strings, but they are built only once per distinct n-gram
+        String ngram = codec.decode(list.code);
+        for(int i = 0; i != ngram.length(); ++i) {
+            for(int j = i + 1; j <= ngram.length() && j - i < ngramSize; ++j) {
+                String infix = ngram.substring(i, j);
+                Set<NGramRefList> lists = infixes.get(infix);
+                if (lists == null) {
+                    lists = new HashSet<NGramRefList>();
+                    infixes.put(infix, lists);
+                }
+                lists.add(list);
+            }
+        }
+    }
+
+    private void removeNGram(long code) {
+        NGramRefList list = index.remove(code);
         if (list != null) {
-            list.references.remove(key);
-            if (list.references.size() == 0) {
-                index.remove(ngram);
+            String ngram = codec.decode(code);
+            for(int i = 0; i != ngram.length(); ++i) {
+                for(int j = i + 1; j <= ngram.length() && j - i < ngramSize; ++j) {
+                    String infix = ngram.substring(i, j);
+                    Set<NGramRefList> lists = infixes.get(infix);
+                    if (lists != null) {
+                        lists.remove(list);
+                        if (lists.isEmpty()) {
+                            infixes.remove(infix);
+                        }
+                    }
+                }
             }
+            codec.release(code);
+        }
+    }
+
+    /**
+     * @return posting lists of all n-grams containing substring shorter than n-gram
+     */
+    Collection<NGramRefList> lookUpInfix(String substring) {
+        if (substring.length() == 0) {
+            return index.values();
         }
+        Set<NGramRefList> lists = infixes.get(substring);
+        return lists == null ? Collections.<NGramRefList>emptySet() : lists;
     }
 
-    @SuppressWarnings("unchecked")
-	public Collection<NGramRefList> lookUpNGram(String ngram) {
-        NGramRefList refList = index.get(ngram); 
-        return refList == null ? Collections.EMPTY_SET : refList.references.keySet();
+    /**
+     * @return posting list of n-gram starting at <code>offset</code> in text or <code>null</code> if n-gram is not present in index
+     */
+	NGramRefList lookUpNGram(String text, int offset) {
+        long code = codec.lookUp(text, offset, offset + ngramSize);
+        return code == NGramCodec.UNKNOWN ? null : index.get(code); 
     }
 
+    /**
+     * @return positions of n-gram in document, for dense list they are looked up in forward n-grams
+     */
+    int[] getPositions(NGramRefList list, int docId) {
+        int[] positions = list.positionsOf(docId);
+        if (positions != null) {
+            return positions;
+        }
+        long[] split = getDocumentCodes(docId);
+        return split == null ? NGramRefList.NO_POSITIONS : NGramRefList.findPositions(split, list.code);
+    }
+
+    /**
+     * @return <code>true</code> if n-gram with given code contains substring
+     */
+    boolean containsSubstring(long code, String substring) {
+        return codec.contains(code, substring);
+    }
+
+	public int getNGramCount() {
+		return index.size();
+	}
+
+	/**
+	 * @return all posting lists, list is copied on each call
+	 */
+	List<NGramRefList> getNGramLists() {
+		return index.values();
+	}
+
+	/**
+	 * Builds map of n-gram to its posting list.
+	 * <br/>
+	 * N-grams are kept as primitive codes, so each call decodes every n-gram
+	 * and allocates new map, i.e. cost is O(number of n-grams) in time and memory.
+	 * Should not be used on query or update path.
+	 * @return new map of n-gram to its posting list
+	 * @deprecated use {@link #getNGramCount()} or {@link #getDocumentNGrams(int)},
+	 *             or {@link org.gridkit.coherence.search.StatisticsAwareSearchIndex} statistics of plugin
+	 */
+	@Deprecated
 	public Map<String, NGramRefList> getNGramMap() {
-		return index;
+		Map<String, NGramRefList> map = new HashMap<String, NGramRefList>();
+		for(NGramRefList list: index.values()) {
+			map.put(codec.decode(list.code), list);
+		}
+		return map;
 	}
+
+    private static class IdList {
+        final long code;
+        int[] ids = new int[4];
+        int size;
+
+        IdList(long code) {
+            this.code = code;
+        }
+
+        void add(int id) {
+            // n-gram may occur in document several times
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            ids[size++] = id;
+        }
+    }
 }
@@ -16,86 +16,160 @@
 
 package org.gridkit.coherence.search.ngram;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
+import org.gridkit.coherence.search.BatchUpdateSearchIndex;
+import org.gridkit.coherence.search.BulkLoadSearchIndex;
+import org.gridkit.coherence.search.CapabilityAwareSearchIndex;
+import org.gridkit.coherence.search.IndexCapabilities;
 import org.gridkit.coherence.search.IndexEngineConfig;
 import org.gridkit.coherence.search.IndexInvocationContext;
+import org.gridkit.coherence.search.IndexUpdateBatch;
+import org.gridkit.coherence.search.IndexUpdateBatch.Segment;
 import org.gridkit.coherence.search.IndexUpdateEvent;
+import org.gridkit.coherence.search.KeyDictionary;
+import org.gridkit.coherence.search.KeyDictionaryContext;
+import org.gridkit.coherence.search.LimitAwareSearchIndex;
+import org.gridkit.coherence.search.PersistentSearchIndex;
 import org.gridkit.coherence.search.PlugableSearchIndex;
+import org.gridkit.coherence.search.StatisticsAwareSearchIndex;
 
 /**
  * Reference implementation of custom index.
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
-public class NGramIndexPlugin implements PlugableSearchIndex<NGramIndex, Integer, String> {
+public class NGramIndexPlugin implements PlugableSearchIndex<NGramIndex, Integer, String>, BulkLoadSearchIndex<NGramIndex>, BatchUpdateSearchIndex<NGramIndex>, StatisticsAwareSearchIndex<NGramIndex>, PersistentSearchIndex<NGramIndex>, LimitAwareSearchIndex<NGramIndex, String>, CapabilityAwareSearchIndex {
 
 	@Override
 	public boolean applyIndex(NGramIndex index, String query, Set<Object> keySet, IndexInvocationContext context) {
-        return ngramFilter(index, query, keySet);
+        ngramFilter(index, query, keySet, getKeyDictionary(context));
+        // results are exact, no post filtering is required
+        return false;
     }
 
-    @SuppressWarnings("rawtypes")
-	private boolean ngramFilter(NGramIndex index, String substring, Set setKeys) {
-        if (index.getNGramSize() <= substring.length()) {
-            filterSet(index, substring, setKeys);
-            return true;
+	@Override
+	public boolean applyIndex(NGramIndex index, String query, Set<Object> keySet, int limit, IndexInvocationContext context) {
+        if (index.getNGramSize() <= query.length()) {
+            filterSet(index, query, keySet, limit, getKeyDictionary(context));
         }
         else {
-            unionFilterSet(index, substring, setKeys);
-            return false;
+            limitedScan(index, query, keySet, limit, getKeyDictionary(context));
+        }
+        return false;
+	}
+
+	/**
+	 * Short substring is matched against forward n-grams of each key until limit is reached,
+	 * instead of scanning whole n-gram map.
+	 */
+	private void limitedScan(NGramIndex index, String substring, Set<Object> setKeys, int limit, KeyDictionary dictionary) {
+        Set<Object> matched = new HashSet<Object>();
+        for(Object key: setKeys) {
+            int id = dictionary.getId(key);
+            if (id >= 0 && containsSubstring(index, index.getDocumentCodes(id), substring)) {
+                matched.add(key);
+                if (matched.size() >= limit) {
+                    break;
+                }
+            }
         }
+        setKeys.retainAll(matched);
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-	private void unionFilterSet(NGramIndex index, String substring, Set setKeys) {
-        Set result = new HashSet();
-        for(Object entry: index.getNGramMap().entrySet()) {
-            String ngram = (String) ((Map.Entry)entry).getKey();
-            NGramRefList list = (NGramRefList) ((Map.Entry)entry).getValue();
-            
-            if (ngram.indexOf(substring) >= 0) {
-                for(Object key: list.references.keySet()) {
-                    if (setKeys.contains(key)) {
-                        result.add(key);
-                    }
+	private static boolean containsSubstring(NGramIndex index, long[] codes, String substring) {
+        if (codes != null) {
+            for(long code: codes) {
+                if (index.containsSubstring(code, substring)) {
+                    return true;
                 }
-            }            
+            }
         }
-        setKeys.retainAll(result);
+        return false;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-	private void filterSet(NGramIndex index, String substring, Set setKeys) {
-        int n = 0;
-        int ngramSize = index.getNGramSize();
-        while(true) {
-            String ngram = substring.substring(n, n + ngramSize);
-            setKeys.retainAll(index.lookUpNGram(ngram));     
-            if (setKeys.isEmpty()) {
-                break;
+	private void ngramFilter(NGramIndex index, String substring, Set<Object> setKeys, KeyDictionary dictionary) {
+        if (index.getNGramSize() <= substring.length()) {
+            filterSet(index, substring, setKeys, Integer.MAX_VALUE, dictionary);
+        }
+        else {
+            unionFilterSet(index, substring, setKeys, dictionary);
+        }
+    }
+
+	private void unionFilterSet(NGramIndex index, String substring, Set<Object> setKeys, KeyDictionary dictionary) {
+        // only n-grams containing substring are visited, postings are merged once
+        // dense posting lists are merged word by word
+        long[] result = new long[(dictionary.getIdLimit() + 63) >> 6];
+        for(NGramRefList list: index.lookUpInfix(substring)) {
+            list.orInto(result);
+        }
+        for(Iterator<Object> it = setKeys.iterator(); it.hasNext();) {
+            int id = dictionary.getId(it.next());
+            if (id < 0 || (result[id >> 6] & (1l << id)) == 0) {
+                it.remove();
             }
-            n += ngramSize;
-            if (n == substring.length()) {
-                break;
+        }
+    }
+
+	private void filterSet(NGramIndex index, String substring, Set<Object> setKeys, int limit, KeyDictionary dictionary) {
+        NGramQueryPlan plan = new NGramQueryPlan(index, substring);
+        int[] candidates = plan.getCandidates();
+        int count = candidates.length;
+        if (count == 0) {
+            setKeys.clear();
+            return;
+        }
+        // postings are intersected as int arrays, keys are touched only once
+        int found = 0;
+        if (count < setKeys.size()) {
+            // candidates are looked up in key set, key set is not scanned
+            Set<Object> matched = new HashSet<Object>();
+            for(int i = 0; i != count && found < limit; ++i) {
+                Object key = dictionary.getKey(candidates[i]);
+                if (setKeys.contains(key) && plan.matches(candidates[i])) {
+                    matched.add(key);
+                    ++found;
+                }
             }
-            else if (n + ngramSize > substring.length()) {
-                int over = n + ngramSize - substring.length();
-                n -= over;
+            setKeys.retainAll(matched);
+        }
+        else {
+            for(Iterator<Object> it = setKeys.iterator(); it.hasNext();) {
+                int id = dictionary.getId(it.next());
+                if (found < limit && id >= 0 && Arrays.binarySearch(candidates, 0, count, id) >= 0 && plan.matches(id)) {
+                    ++found;
+                }
+                else {
+                    it.remove();
+                }
             }
         }
     }
 
 	@Override
 	public int calculateEffectiveness(NGramIndex index, String query, Set<Object> keySet, IndexInvocationContext context) {
-		if (query.length() > index.getNGramSize()) {
-			return query.length() / index.getNGramSize() + 1;
+		if (query.length() >= index.getNGramSize()) {
+			// result could not be larger than shortest posting list
+			int max = new NGramQueryPlan(index, query).getMaxMatches();
+			return Math.max(1, Math.min(max, keySet.size()));
 		}
 		else {
-			// TODO
-			return 2 * index.getNGramMap().size();
+			// result could not be larger than postings of n-grams containing substring
+			long postings = 0;
+			for(NGramRefList list: index.lookUpInfix(query)) {
+				postings += list.size;
+			}
+			return (int)Math.max(1, Math.min(postings, keySet.size()));
 		}
 	}
 
@@ -104,6 +178,24 @@ public class NGramIndexPlugin implements PlugableSearchIndex<NGramIndex, Integer
 		// use defaults
 	}
 
+	@Override
+	public IndexCapabilities getCapabilities() {
+		// forward n-grams are kept by index itself, original values are never read
+		return new IndexCapabilities()
+			.setOriginalValueRequired(false)
+			.setDeletedValueRequired(false)
+			.setBulkUpdateSupported(true)
+			// postings refer documents by int IDs
+			.setKeyDictionaryRequired(true)
+			// positions are verified, no false positives
+			.setExactResults(true);
+	}
+
+	private static KeyDictionary getKeyDictionary(IndexInvocationContext context) {
+		// dictionary is requested via capabilities
+		return ((KeyDictionaryContext)context).getKeyDictionary();
+	}
+
 	@Override
 	public Object createIndexCompatibilityToken(Integer indexConfig) {
 		return NGramIndexToken.INSTANCE;
@@ -122,18 +214,118 @@ public class NGramIndexPlugin implements PlugableSearchIndex<NGramIndex, Integer
 
 	@Override
 	public void updateIndexEntries(NGramIndex index, Map<Object, IndexUpdateEvent> events, IndexInvocationContext context) {
+		KeyDictionary dictionary = getKeyDictionary(context);
 		for (IndexUpdateEvent event: events.values()) {
 			switch (event.getType()) {
 			case INSERT:
-				index.insert(event.getKey(), String.valueOf(event.getValue()));
+				index.insert(dictionary.getId(event.getKey()), String.valueOf(event.getValue()));
 				break;
 			case UPDATE:
-				index.update(event.getKey(), String.valueOf(event.getValue()));
+				index.update(dictionary.getId(event.getKey()), String.valueOf(event.getValue()));
 				break;
 			case DELETE:
-				index.delete(event.getKey());
+				index.delete(dictionary.getId(event.getKey()));
 				break;
 			}
 		}
 	}
+
+	@Override
+	public void loadIndexEntries(NGramIndex index, Map<Object, Object> documents, IndexInvocationContext context) {
+		KeyDictionary dictionary = getKeyDictionary(context);
+		// (ID, position) pairs are sorted as primitives
+		long[] order = new long[documents.size()];
+		Object[] values = new Object[documents.size()];
+		int n = 0;
+		for(Map.Entry<Object, Object> doc: documents.entrySet()) {
+			order[n] = (((long)dictionary.getId(doc.getKey())) << 32) | n;
+			values[n] = doc.getValue();
+			++n;
+		}
+		Arrays.sort(order);
+		int[] ids = new int[n];
+		String[] texts = new String[n];
+		for(int i = 0; i != n; ++i) {
+			ids[i] = (int)(order[i] >>> 32);
+			texts[i] = String.valueOf(values[(int)order[i]]);
+		}
+		index.bulkUpdate(ids, 0, ids, texts, n);
+	}
+
+	@Override
+	public void updateIndexBatch(NGramIndex index, IndexUpdateBatch batch, IndexInvocationContext context) {
+		Segment inserts = batch.getInserts();
+		Segment updates = batch.getUpdates();
+		Segment deletes = batch.getDeletes();
+		// updated documents are removed and added again, segments are sorted by ID
+		int[] removed = new int[updates.size() + deletes.size()];
+		int removedCount = 0;
+		int i = 0;
+		int j = 0;
+		while(i < updates.size() || j < deletes.size()) {
+			if (j >= deletes.size() || (i < updates.size() && updates.getDocId(i) < deletes.getDocId(j))) {
+				removed[removedCount++] = updates.getDocId(i++);
+			}
+			else {
+				removed[removedCount++] = deletes.getDocId(j++);
+			}
+		}
+		int[] added = new int[inserts.size() + updates.size()];
+		String[] texts = new String[added.length];
+		int addedCount = 0;
+		i = 0;
+		j = 0;
+		while(i < inserts.size() || j < updates.size()) {
+			if (j >= updates.size() || (i < inserts.size() && inserts.getDocId(i) < updates.getDocId(j))) {
+				texts[addedCount] = String.valueOf(inserts.getValue(i));
+				added[addedCount++] = inserts.getDocId(i++);
+			}
+			else {
+				texts[addedCount] = String.valueOf(updates.getValue(j));
+				added[addedCount++] = updates.getDocId(j++);
+			}
+		}
+		index.bulkUpdate(removed, removedCount, added, texts, addedCount);
+	}
+
+	@Override
+	public Map<String, Number> getIndexStatistics(NGramIndex index) {
+		long postings = 0;
+		long positions = 0;
+		int dense = 0;
+		for(NGramRefList list: index.getNGramLists()) {
+			postings += list.size;
+			if (list.isDense()) {
+				// positions of dense lists are not kept
+				++dense;
+			}
+			else {
+				for(int i = 0; i != list.size; ++i) {
+					positions += list.positions[i].length;
+				}
+			}
+		}
+		Map<String, Number> stats = new HashMap<String, Number>();
+		stats.put("ngramCount", index.getNGramCount());
+		stats.put("postingCount", postings);
+		stats.put("positionCount", positions);
+		stats.put("infixCount", index.infixes.size());
+		stats.put("denseNGramCount", dense);
+		return stats;
+	}
+
+	@Override
+	public void writeSnapshot(NGramIndex index, DataOutput out, IndexInvocationContext context) throws IOException {
+		index.writeSnapshot(out);
+	}
+
+	@Override
+	public void readSnapshot(NGramIndex index, ByteBuffer image, IndexInvocationContext context) throws IOException {
+		try {
+			index.readSnapshot(image, getKeyDictionary(context).getIdLimit());
+		}
+		catch(BufferUnderflowException e) {
+			throw new IOException("Index image is truncated");
+		}
+	}
 }
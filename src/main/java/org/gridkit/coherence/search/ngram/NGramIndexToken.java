@@ -44,4 +44,9 @@ public class NGramIndexToken {
             return false;
         return true;
     }
+
+    @Override
+    public String toString() {
+        return "NGramIndex";
+    }
 }
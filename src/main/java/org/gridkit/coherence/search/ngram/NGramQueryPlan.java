@@ -0,0 +1,178 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search.ngram;
+
+import java.util.Arrays;
+
+/**
+ * Decomposition of substring query into n-grams.
+ * <br/>
+ * All overlapping n-grams of substring are looked up, but only few most selective
+ * of them are intersected. Candidates are verified against forward n-grams of document,
+ * so result is exact regardless of chosen n-grams, and common n-grams (e.g. "the")
+ * do not need to be intersected at all.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class NGramQueryPlan {
+
+    // intersection stops once candidates are this few, verification is cheaper
+    private static final int SMALL_CANDIDATE_COUNT = 16;
+    private static final int MAX_INTERSECTED = 3;
+    // lists much longer than the shortest one are not worth intersecting
+    private static final int SELECTIVITY_RATIO = 16;
+
+    private final NGramIndex index;
+    // posting lists of n-grams by offset in substring
+    private final NGramRefList[] lists;
+    // offset of shortest posting list
+    private int anchor = -1;
+
+    /**
+     * @param substring query, should not be shorter than n-gram
+     */
+    public NGramQueryPlan(NGramIndex index, String substring) {
+        this.index = index;
+        lists = new NGramRefList[substring.length() - index.getNGramSize() + 1];
+        for(int i = 0; i != lists.length; ++i) {
+            lists[i] = index.lookUpNGram(substring, i);
+            if (lists[i] == null) {
+                // no document could match
+                anchor = -1;
+                return;
+            }
+            else if (anchor < 0 || lists[i].size < lists[anchor].size) {
+                anchor = i;
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if some n-gram of substring is not present in index
+     */
+    public boolean isSatisfiable() {
+        return anchor >= 0;
+    }
+
+    /**
+     * @return size of shortest posting list, upper bound for number of matches
+     */
+    public int getMaxMatches() {
+        return anchor < 0 ? 0 : lists[anchor].size;
+    }
+
+    /**
+     * Intersects most selective posting lists.
+     * While all intersected lists are dense, intersection is done word by word on bitmaps.
+     * @return sorted candidate document IDs, candidates should be verified with {@link #matches(int)}
+     */
+    public int[] getCandidates() {
+        if (anchor < 0) {
+            return new int[0];
+        }
+        NGramRefList shortest = lists[anchor];
+        long[] words = null;
+        int[] candidates = null;
+        if (shortest.isDense()) {
+            words = shortest.copyBits();
+        }
+        else {
+            candidates = shortest.toArray();
+        }
+        int count = shortest.size();
+        boolean[] used = new boolean[lists.length];
+        used[anchor] = true;
+        for(int n = 1; n < MAX_INTERSECTED && count > SMALL_CANDIDATE_COUNT; ++n) {
+            int next = -1;
+            for(int i = 0; i != lists.length; ++i) {
+                if (!used[i] && (next < 0 || lists[i].size < lists[next].size)) {
+                    next = i;
+                }
+            }
+            if (next < 0 || lists[next].size > SELECTIVITY_RATIO * shortest.size) {
+                break;
+            }
+            // same n-gram may occur at several offsets
+            for(int i = 0; i != lists.length; ++i) {
+                if (lists[i] == lists[next]) {
+                    used[i] = true;
+                }
+            }
+            if (words != null && lists[next].isDense()) {
+                count = lists[next].andInto(words);
+            }
+            else {
+                if (words != null) {
+                    candidates = NGramRefList.toArray(words, count);
+                    words = null;
+                }
+                count = lists[next].retain(candidates, count);
+            }
+        }
+        if (words != null) {
+            return NGramRefList.toArray(words, count);
+        }
+        return count == candidates.length ? candidates : Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Checks that document contains all n-grams of substring at consistent offsets.
+     * Positions of shortest posting list are used as starting points,
+     * if it is dense, whole document is scanned for its n-gram.
+     */
+    public boolean matches(int doc) {
+        if (anchor < 0) {
+            return false;
+        }
+        if (lists.length == 1) {
+            return lists[0].contains(doc);
+        }
+        long[] split = index.getDocumentCodes(doc);
+        if (split == null) {
+            return false;
+        }
+        int[] positions = lists[anchor].positionsOf(doc);
+        if (positions != null) {
+            for(int p: positions) {
+                if (matchesAt(split, p - anchor)) {
+                    return true;
+                }
+            }
+        }
+        else {
+            long code = lists[anchor].code;
+            for(int p = anchor; p < split.length; ++p) {
+                if (split[p] == code && matchesAt(split, p - anchor)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesAt(long[] split, int start) {
+        if (start < 0 || start + lists.length > split.length) {
+            return false;
+        }
+        for(int i = 0; i != lists.length; ++i) {
+            if (lists[i].code != split[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
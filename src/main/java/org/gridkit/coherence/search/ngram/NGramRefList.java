@@ -14,34 +14,373 @@
  * limitations under the License.
  */
 
+
 package org.gridkit.coherence.search.ngram;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
- * Reference implementation of custom index.
+ * Posting list of single n-gram. Documents are referred by IDs from
+ * {@link org.gridkit.coherence.search.KeyDictionary}.
+ * <br/>
+ * Sparse list keeps sorted IDs with positions of n-gram in each document.
+ * Dense list (n-gram found in large share of documents) keeps bitmap of IDs only,
+ * positions are recovered from forward n-grams of document when needed.
+ * Since IDs are dense, bitmap of frequent n-gram is many times smaller than
+ * array of IDs, and lists could be intersected and joined word by word.
+ * Format is chosen by {@link NGramIndex}, see {@link #needsDense()} and {@link #needsSparse()}.
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 class NGramRefList {
-    final String ngram;
-    final Map<Object, int[]> references = new HashMap<Object, int[]>();
+
+    static final int[] NO_POSITIONS = new int[0];
+
+    // bitmap is used only for lists with at least this many documents
+    private static final int MIN_DENSE_SIZE = 64;
+    // bitmap is chosen once at least one of DENSE_RATIO IDs is in list
+    private static final int DENSE_RATIO = 16;
+    // and dropped once less then one of SPARSE_RATIO IDs is in list
+    private static final int SPARSE_RATIO = 64;
+
+    // see NGramCodec
+    final long code;
+    // sorted document IDs, null for dense list
+    int[] docs = new int[2];
+    // positions of n-gram in document, parallel to docs
+    int[][] positions = new int[2][];
+    // bitmap of document IDs, null for sparse list
+    long[] bits;
+    int size;
     
-    public NGramRefList(String ngarm) {
-        this.ngram = ngarm;
+    public NGramRefList(long code) {
+        this.code = code;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isDense() {
+        return bits != null;
     }
 
-    public void addRef(Object key, int position) {
-        int[] pList = references.get(key);
-        if (pList == null) {
-            pList = new int[]{position};
+    public void addRef(int doc, int position) {
+        if (bits != null) {
+            setBit(doc);
+            return;
         }
-        else {
+        int n = indexOf(doc);
+        if (n >= 0) {
+            int[] pList = positions[n];
             pList = Arrays.copyOf(pList, pList.length + 1);
             pList[pList.length - 1] = position;
+            positions[n] = pList;
+        }
+        else {
+            n = -(n + 1);
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, 2 * size);
+                positions = Arrays.copyOf(positions, 2 * size);
+            }
+            System.arraycopy(docs, n, docs, n + 1, size - n);
+            System.arraycopy(positions, n, positions, n + 1, size - n);
+            docs[n] = doc;
+            positions[n] = new int[]{position};
+            ++size;
+        }
+    }
+
+    public void removeRef(int doc) {
+        if (bits != null) {
+            clearBit(doc);
+            return;
+        }
+        int n = indexOf(doc);
+        if (n >= 0) {
+            System.arraycopy(docs, n + 1, docs, n, size - n - 1);
+            System.arraycopy(positions, n + 1, positions, n, size - n - 1);
+            --size;
+            positions[size] = null;
+        }
+    }
+
+    /**
+     * Removes sorted document IDs from list in single pass.
+     */
+    public void removeAll(int[] ids, int count) {
+        if (bits != null) {
+            for(int i = 0; i != count; ++i) {
+                clearBit(ids[i]);
+            }
+            return;
+        }
+        int n = 0;
+        int j = 0;
+        for(int i = 0; i != size; ++i) {
+            while(j < count && ids[j] < docs[i]) {
+                ++j;
+            }
+            if (j < count && ids[j] == docs[i]) {
+                continue;
+            }
+            docs[n] = docs[i];
+            positions[n] = positions[i];
+            ++n;
+        }
+        Arrays.fill(positions, n, size, null);
+        size = n;
+    }
+
+    /**
+     * Merges list of other documents into this one in single pass.
+     * Lists should not have common documents, other list should be sparse.
+     */
+    public void mergeAll(NGramRefList other) {
+        if (bits != null) {
+            for(int i = 0; i != other.size; ++i) {
+                setBit(other.docs[i]);
+            }
+            return;
+        }
+        int total = size + other.size;
+        if (total > docs.length) {
+            int capacity = Math.max(total, 2 * docs.length);
+            docs = Arrays.copyOf(docs, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        // merge from the tail, so no temporary arrays are needed
+        int i = size - 1;
+        int j = other.size - 1;
+        int k = total - 1;
+        while(j >= 0) {
+            if (i >= 0 && docs[i] > other.docs[j]) {
+                docs[k] = docs[i];
+                positions[k] = positions[i];
+                --i;
+            }
+            else {
+                docs[k] = other.docs[j];
+                positions[k] = other.positions[j];
+                --j;
+            }
+            --k;
+        }
+        size = total;
+    }
+
+    public boolean contains(int doc) {
+        if (bits != null) {
+            int w = doc >> 6;
+            return doc >= 0 && w < bits.length && (bits[w] & (1l << doc)) != 0;
+        }
+        else {
+            return indexOf(doc) >= 0;
+        }
+    }
+
+    /**
+     * @return positions of n-gram in document, or <code>null</code> if list is dense and positions are not kept
+     */
+    public int[] positionsOf(int doc) {
+        if (bits != null) {
+            return null;
+        }
+        int n = indexOf(doc);
+        return n < 0 ? NO_POSITIONS : positions[n];
+    }
+
+    /**
+     * @return sorted document IDs
+     */
+    public int[] toArray() {
+        return bits == null ? Arrays.copyOf(docs, size) : toArray(bits, size);
+    }
+
+    int indexOf(int doc) {
+        // documents are usually indexed in order of ID allocation
+        if (size > 0 && docs[size - 1] == doc) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(docs, 0, size, doc);
+    }
+
+    /**
+     * Intersects sorted array of document IDs with this list, result is written to same array.
+     * Sparse list is traversed by galloping search, so cost depends on number of candidates
+     * rather than on length of list.
+     * @return number of IDs retained
+     */
+    public int retain(int[] candidates, int count) {
+        if (bits != null) {
+            int n = 0;
+            for(int i = 0; i != count; ++i) {
+                if (contains(candidates[i])) {
+                    candidates[n++] = candidates[i];
+                }
+            }
+            return n;
+        }
+        int n = 0;
+        int j = 0;
+        for(int i = 0; i != count && j < size; ++i) {
+            int doc = candidates[i];
+            if (docs[j] < doc) {
+                // docs[lo] < doc is kept as invariant
+                int lo = j;
+                int step = 1;
+                while(lo + step < size && docs[lo + step] < doc) {
+                    lo += step;
+                    step <<= 1;
+                }
+                int k = Arrays.binarySearch(docs, lo + 1, Math.min(lo + step, size), doc);
+                j = k >= 0 ? k : -(k + 1);
+            }
+            if (j < size && docs[j] == doc) {
+                candidates[n++] = doc;
+                ++j;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Adds documents of this list to bitmap, bitmap should cover all IDs.
+     */
+    public void orInto(long[] words) {
+        if (bits != null) {
+            int n = Math.min(words.length, bits.length);
+            for(int i = 0; i != n; ++i) {
+                words[i] |= bits[i];
+            }
+        }
+        else {
+            for(int i = 0; i != size; ++i) {
+                words[docs[i] >> 6] |= 1l << docs[i];
+            }
+        }
+    }
+
+    /**
+     * Intersects bitmap with this list, list should be dense.
+     * @return number of IDs retained
+     */
+    public int andInto(long[] words) {
+        int count = 0;
+        for(int i = 0; i != words.length; ++i) {
+            words[i] &= i < bits.length ? bits[i] : 0;
+            count += Long.bitCount(words[i]);
+        }
+        return count;
+    }
+
+    /**
+     * @return copy of bitmap, list should be dense
+     */
+    public long[] copyBits() {
+        return Arrays.copyOf(bits, bits.length);
+    }
+
+    public boolean needsDense() {
+        return bits == null && size >= MIN_DENSE_SIZE && (long)size * DENSE_RATIO > docs[size - 1];
+    }
+
+    public boolean needsSparse() {
+        // bitmap only grows, so density is measured against highest ID still in list
+        return bits != null && (long)size * SPARSE_RATIO < lastBit(bits) + 1;
+    }
+
+    /**
+     * @return highest set bit of bitmap, -1 if bitmap is empty
+     */
+    private static long lastBit(long[] words) {
+        for(int w = words.length - 1; w >= 0; --w) {
+            if (words[w] != 0) {
+                return 64l * w + 63 - Long.numberOfLeadingZeros(words[w]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts list to bitmap, positions are dropped.
+     */
+    public void toDense() {
+        long[] words = new long[(docs[size - 1] >> 6) + 1];
+        for(int i = 0; i != size; ++i) {
+            words[docs[i] >> 6] |= 1l << docs[i];
+        }
+        bits = words;
+        docs = null;
+        positions = null;
+    }
+
+    /**
+     * Converts list back to sorted IDs, positions are restored from forward n-grams of documents.
+     */
+    public void toSparse(long[][] extract) {
+        int[] ids = toArray(bits, size);
+        int[][] pos = new int[Math.max(2, size)][];
+        for(int i = 0; i != size; ++i) {
+            pos[i] = findPositions(extract[ids[i]], code);
+        }
+        docs = Arrays.copyOf(ids, Math.max(2, size));
+        positions = pos;
+        bits = null;
+    }
+
+    private void setBit(int doc) {
+        int w = doc >> 6;
+        if (w >= bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(w + 1, 2 * bits.length));
+        }
+        if ((bits[w] & (1l << doc)) == 0) {
+            bits[w] |= 1l << doc;
+            ++size;
+        }
+    }
+
+    private void clearBit(int doc) {
+        int w = doc >> 6;
+        if (w < bits.length && (bits[w] & (1l << doc)) != 0) {
+            bits[w] &= ~(1l << doc);
+            --size;
+        }
+    }
+
+    /**
+     * @return positions of n-gram in forward n-grams of document
+     */
+    static int[] findPositions(long[] split, long code) {
+        int count = 0;
+        for(long c: split) {
+            if (c == code) {
+                ++count;
+            }
+        }
+        int[] positions = new int[count];
+        count = 0;
+        for(int i = 0; i != split.length; ++i) {
+            if (split[i] == code) {
+                positions[count++] = i;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return sorted IDs of bits set in bitmap
+     */
+    static int[] toArray(long[] words, int count) {
+        int[] ids = new int[count];
+        int n = 0;
+        for(int i = 0; i != words.length; ++i) {
+            long word = words[i];
+            while(word != 0) {
+                ids[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
         }
-        references.put(key, pList);
+        return ids;
     }
 }
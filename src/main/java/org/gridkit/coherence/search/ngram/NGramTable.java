@@ -0,0 +1,143 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search.ngram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open addressing hash map with primitive n-gram codes as keys (see {@link NGramCodec}).
+ * <br/>
+ * Linear probing, removed entries are back shifted, so there are no tombstones.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class NGramTable<V> {
+
+    private long[] codes = new long[16];
+    // null value marks empty slot
+    private Object[] values = new Object[16];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long code) {
+        int mask = codes.length - 1;
+        int slot = hash(code) & mask;
+        while(values[slot] != null) {
+            if (codes[slot] == code) {
+                return (V)values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public void put(long code, V value) {
+        if (2 * (size + 1) > codes.length) {
+            resize(2 * codes.length);
+        }
+        int mask = codes.length - 1;
+        int slot = hash(code) & mask;
+        while(values[slot] != null) {
+            if (codes[slot] == code) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        codes[slot] = code;
+        values[slot] = value;
+        ++size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long code) {
+        int mask = codes.length - 1;
+        int slot = hash(code) & mask;
+        while(values[slot] != null) {
+            if (codes[slot] == code) {
+                V value = (V)values[slot];
+                values[slot] = null;
+                --size;
+                shiftBack(slot);
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Moves entries following freed slot, so lookups do not stop at it.
+     */
+    private void shiftBack(int free) {
+        int mask = codes.length - 1;
+        int slot = (free + 1) & mask;
+        while(values[slot] != null) {
+            int home = hash(codes[slot]) & mask;
+            // entry could be moved only if its home slot is not between free and current slot
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                codes[free] = codes[slot];
+                values[free] = values[slot];
+                values[slot] = null;
+                free = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return copy of all values
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> result = new ArrayList<V>(size);
+        for(Object value: values) {
+            if (value != null) {
+                result.add((V)value);
+            }
+        }
+        return result;
+    }
+
+    private void resize(int capacity) {
+        long[] ocodes = codes;
+        Object[] ovalues = values;
+        codes = new long[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for(int i = 0; i != ocodes.length; ++i) {
+            if (ovalues[i] != null) {
+                int slot = hash(ocodes[i]) & mask;
+                while(values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                codes[slot] = ocodes[i];
+                values[slot] = ovalues[i];
+            }
+        }
+    }
+
+    private static int hash(long code) {
+        // high bits of product depend on all bits of code
+        return (int)((code * 0x9E3779B97F4A7C15l) >>> 32);
+    }
+}
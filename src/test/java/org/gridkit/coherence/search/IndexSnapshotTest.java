@@ -0,0 +1,228 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.gridkit.coherence.search.ngram.NGramIndex;
+import org.gridkit.coherence.search.ngram.NGramIndexPlugin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tangosol.util.Binary;
+import com.tangosol.util.ExternalizableHelper;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class IndexSnapshotTest {
+
+	private static final String TOKEN = "test-index";
+	
+	private NGramIndexPlugin plugin = new NGramIndexPlugin();
+	private File file;
+	
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("index", ".snapshot");
+	}
+	
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+	
+	@Test
+	public void testRoundTrip() throws IOException {
+		KeyDictionary dictionary = new KeyDictionary();
+		Map<Object, Object> documents = new HashMap<Object, Object>();
+		for(int i = 0; i != 100; ++i) {
+			documents.put("k" + i, "text-" + i);
+			dictionary.allocate("k" + i);
+		}
+		// hole in ID space
+		documents.remove("k5");
+		dictionary.release("k5");
+		long[] fingerprints = new long[dictionary.getIdLimit()];
+		for(Map.Entry<Object, Object> doc: documents.entrySet()) {
+			fingerprints[dictionary.getId(doc.getKey())] = IndexSnapshot.fingerprint(doc.getValue(), null);
+		}
+		NGramIndex index = plugin.createIndexInstance(3);
+		plugin.loadIndexEntries(index, documents, new TestContext(dictionary));
+		
+		IndexSnapshot.write(file, TOKEN, dictionary, fingerprints, plugin, index, new TestContext(dictionary));
+		IndexSnapshot snapshot = IndexSnapshot.read(file, TOKEN);
+		
+		Assert.assertEquals(dictionary.getIdLimit(), snapshot.keys.length);
+		Object[] keys = new Object[snapshot.keys.length];
+		for(int id = 0; id != keys.length; ++id) {
+			if (snapshot.keys[id] != null) {
+				keys[id] = ExternalizableHelper.fromBinary((Binary) snapshot.keys[id]);
+				Assert.assertEquals(fingerprints[id], snapshot.fingerprints[id]);
+			}
+			Assert.assertEquals(dictionary.getKey(id), keys[id]);
+		}
+		KeyDictionary restored = KeyDictionary.restore(keys);
+		NGramIndex rindex = plugin.createIndexInstance(3);
+		plugin.readSnapshot(rindex, snapshot.data, new TestContext(restored));
+		
+		Assert.assertEquals(index.getNGramCount(), rindex.getNGramCount());
+		Assert.assertEquals(query(index, dictionary, documents.keySet(), "text-1"), query(rindex, restored, documents.keySet(), "text-1"));
+		Assert.assertEquals(11, query(rindex, restored, documents.keySet(), "text-1").size());
+		// k5 has been removed
+		Assert.assertEquals(10, query(rindex, restored, documents.keySet(), "text-5").size());
+	}
+	
+	@Test
+	public void testFingerprint() {
+		Assert.assertEquals(0, IndexSnapshot.fingerprint(null, null));
+		Assert.assertEquals(IndexSnapshot.fingerprint("abc", null), IndexSnapshot.fingerprint(new String("abc"), null));
+		Assert.assertFalse(IndexSnapshot.fingerprint("abc", null) == IndexSnapshot.fingerprint("abd", null));
+		// same hash code
+		Assert.assertEquals(Long.valueOf(1).hashCode(), Long.valueOf(1l << 32).hashCode());
+		Assert.assertFalse(IndexSnapshot.fingerprint(Long.valueOf(1), null) == IndexSnapshot.fingerprint(Long.valueOf(1l << 32), null));
+		Assert.assertEquals(IndexSnapshot.fingerprint(Long.valueOf(1), null), IndexSnapshot.fingerprint(Long.valueOf(1), null));
+		Assert.assertFalse(IndexSnapshot.fingerprint(Long.valueOf(1), null) == IndexSnapshot.fingerprint(Integer.valueOf(1), null));
+		// binary attribute is fingerprinted as is
+		Assert.assertEquals(IndexSnapshot.fingerprint(new Binary(new byte[]{1, 2, 3}), null), IndexSnapshot.fingerprint(new Binary(new byte[]{1, 2, 3}), null));
+		Assert.assertFalse(IndexSnapshot.fingerprint(new Binary(new byte[]{1, 2, 3}), null) == IndexSnapshot.fingerprint(new Binary(new byte[]{1, 2, 4}), null));
+		// not serializable
+		Assert.assertEquals(IndexSnapshot.UNKNOWN_FINGERPRINT, IndexSnapshot.fingerprint(new Object(), null));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testNotSnapshot() throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write("this is not a snapshot".getBytes());
+		fos.close();
+		IndexSnapshot.read(file, TOKEN);
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedSnapshot() throws IOException {
+		writeSample();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() / 2);
+		raf.close();
+		IndexSnapshot snapshot = IndexSnapshot.read(file, TOKEN);
+		// key section may survive, plugin section is broken then
+		plugin.readSnapshot(plugin.createIndexInstance(3), snapshot.data, new TestContext(KeyDictionary.restore(snapshot.keys)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptedCount() throws IOException {
+		ByteBuffer image = ByteBuffer.allocate(64);
+		image.putInt(3);
+		// n-gram count, would not fit into image
+		image.putInt(Integer.MAX_VALUE);
+		image.flip();
+		plugin.createIndexInstance(3).readSnapshot(image, 10);
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptedDocumentId() throws IOException {
+		ByteBuffer image = ByteBuffer.allocate(64);
+		image.putInt(3);
+		image.putInt(1);
+		image.putInt(3);
+		image.putChar('a').putChar('b').putChar('c');
+		image.putInt(1);
+		// document ID is beyond dictionary
+		image.putInt(1 << 30);
+		image.putInt(1);
+		image.putInt(0);
+		image.flip();
+		plugin.createIndexInstance(3).readSnapshot(image, 10);
+	}
+
+	@Test(expected = IOException.class)
+	public void testOtherIndexSnapshot() throws IOException {
+		writeSample();
+		IndexSnapshot.read(file, "other-index");
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedVersion() throws IOException {
+		writeSample();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(4);
+		raf.writeInt(1);
+		raf.close();
+		IndexSnapshot.read(file, TOKEN);
+	}
+
+	private void writeSample() throws IOException {
+		KeyDictionary dictionary = new KeyDictionary();
+		Map<Object, Object> documents = new HashMap<Object, Object>();
+		for(int i = 0; i != 1000; ++i) {
+			documents.put("k" + i, "some text " + i);
+			dictionary.allocate("k" + i);
+		}
+		NGramIndex index = plugin.createIndexInstance(3);
+		plugin.loadIndexEntries(index, documents, new TestContext(dictionary));
+		IndexSnapshot.write(file, TOKEN, dictionary, new long[dictionary.getIdLimit()], plugin, index, new TestContext(dictionary));
+	}
+	
+	private Set<Object> query(NGramIndex index, KeyDictionary dictionary, Set<Object> keys, String query) {
+		Set<Object> result = new HashSet<Object>(keys);
+		plugin.applyIndex(index, query, result, new TestContext(dictionary));
+		return result;
+	}
+	
+	private static class TestContext implements KeyDictionaryContext {
+		
+		private final KeyDictionary dictionary;
+
+		public TestContext(KeyDictionary dictionary) {
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		public Binary ensureBinaryKey(Object key) {
+			return key instanceof Binary ? (Binary) key : ExternalizableHelper.toBinary(key);
+		}
+
+		@Override
+		public Object ensureObjectKey(Object key) {
+			return key instanceof Binary ? ExternalizableHelper.fromBinary((Binary) key) : key;
+		}
+
+		@Override
+		public Object ensureFilterCompatibleKey(Object key) {
+			return key;
+		}
+
+		@Override
+		public Object getRawAttribute(Object key) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public KeyDictionary getKeyDictionary() {
+			return dictionary;
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gridkit.coherence.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.gridkit.coherence.search.IndexUpdateEvent.Type;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class IndexUpdateBufferTest {
+
+	private static Map<Object, IndexUpdateEvent> copy(Map<Object, IndexUpdateEvent> view) {
+		Map<Object, IndexUpdateEvent> result = new HashMap<Object, IndexUpdateEvent>();
+		for(IndexUpdateEvent event: view.values()) {
+			IndexUpdateEvent e = new IndexUpdateEvent(event.getKey(), event.getValue(), event.getOriginalValue(), event.getType());
+			e.setSequenceNumber(event.getSequenceNumber());
+			result.put(event.getKey(), e);
+		}
+		return result;
+	}
+
+	@Test
+	public void testRequeueFailedBatch() {
+		IndexUpdateBuffer buffer = new IndexUpdateBuffer(4);
+		for(int i = 0; i != 100; ++i) {
+			buffer.add("k" + i, "v" + i, null, Type.INSERT);
+		}
+		Assert.assertEquals(100, buffer.drain().size());
+		Assert.assertEquals(0, buffer.size());
+		// batch has failed, it should be retried by next drain
+		buffer.requeue(0);
+		Assert.assertEquals(100, buffer.size());
+		Map<Object, IndexUpdateEvent> batch = copy(buffer.drain());
+		Assert.assertEquals(100, batch.size());
+		Assert.assertEquals("v7", batch.get("k7").getValue());
+		Assert.assertEquals(Type.INSERT, batch.get("k7").getType());
+		buffer.recycle();
+		Assert.assertEquals(0, buffer.drain().size());
+	}
+
+	@Test
+	public void testRequeueMergesWithNewerEvents() {
+		IndexUpdateBuffer buffer = new IndexUpdateBuffer(4);
+		buffer.add("a", "a1", null, Type.INSERT);
+		buffer.add("b", "b1", null, Type.INSERT);
+		buffer.add("c", "c1", null, Type.INSERT);
+		buffer.drain();
+		// updates arriving while failed batch was being applied
+		buffer.add("a", "a2", "a1", Type.UPDATE);
+		buffer.add("b", null, "b1", Type.DELETE);
+		buffer.add("d", "d1", null, Type.INSERT);
+		long last = buffer.getLastSequence();
+		buffer.requeue(0);
+		Assert.assertEquals(4, buffer.size());
+		Map<Object, IndexUpdateEvent> batch = copy(buffer.drain());
+		Assert.assertEquals(last, buffer.getRetiredWatermark());
+		// retired insert goes first, so index still sees insert of latest value
+		Assert.assertEquals(Type.INSERT, batch.get("a").getType());
+		Assert.assertEquals("a2", batch.get("a").getValue());
+		Assert.assertEquals(Type.NOPE, batch.get("b").getType());
+		Assert.assertEquals(Type.INSERT, batch.get("c").getType());
+		Assert.assertEquals("d1", batch.get("d").getValue());
+		Assert.assertEquals(last, Math.max(batch.get("a").getSequenceNumber(), batch.get("d").getSequenceNumber()));
+	}
+
+	@Test
+	public void testRequeueSkipsAppliedEvents() {
+		IndexUpdateBuffer buffer = new IndexUpdateBuffer(4);
+		for(int i = 0; i != 10; ++i) {
+			buffer.add("k" + i, "v" + i, null, Type.INSERT);
+		}
+		Map<Object, IndexUpdateEvent> view = buffer.drain();
+		// first slice of 4 events has been applied
+		Map<Object, Object> applied = new HashMap<Object, Object>();
+		int n = 0;
+		for(IndexUpdateEvent event: view.values()) {
+			if (n++ < 4) {
+				applied.put(event.getKey(), event.getValue());
+			}
+		}
+		buffer.requeue(4);
+		Map<Object, IndexUpdateEvent> batch = copy(buffer.drain());
+		Assert.assertEquals(6, batch.size());
+		for(Object key: applied.keySet()) {
+			Assert.assertFalse(batch.containsKey(key));
+		}
+	}
+
+	@Test
+	public void testDrainedEntriesAreDistinct() {
+		IndexUpdateBuffer buffer = new IndexUpdateBuffer(4);
+		for(int i = 0; i != 100; ++i) {
+			buffer.add("k" + i, "v" + i, null, Type.INSERT);
+		}
+		// entries are retained after iteration
+		List<Map.Entry<Object, IndexUpdateEvent>> entries = new ArrayList<Map.Entry<Object,IndexUpdateEvent>>(buffer.drain().entrySet());
+		Assert.assertEquals(100, entries.size());
+		Set<Object> keys = new HashSet<Object>();
+		for(Map.Entry<Object, IndexUpdateEvent> entry: entries) {
+			keys.add(entry.getKey());
+			Assert.assertEquals(entry.getKey(), entry.getValue().getKey());
+			Assert.assertEquals("v" + ((String)entry.getKey()).substring(1), entry.getValue().getValue());
+		}
+		Assert.assertEquals(100, keys.size());
+		Assert.assertEquals(100, new HashSet<Map.Entry<Object,IndexUpdateEvent>>(entries).size());
+	}
+
+	@Test
+	public void testStriping() {
+		for(int concurrency: new int[]{1, 3, 64}) {
+			IndexUpdateBuffer buffer = new IndexUpdateBuffer(concurrency);
+			// keys sharing lower bits of hash code
+			for(int i = 0; i != 1000; ++i) {
+				buffer.add(Integer.valueOf(i << 8), "v" + i, null, Type.INSERT);
+			}
+			for(int i = 0; i != 1000; ++i) {
+				buffer.add(Integer.valueOf(i << 8), "u" + i, "v" + i, Type.UPDATE);
+			}
+			Assert.assertEquals(1000, buffer.size());
+			Assert.assertEquals(1000, buffer.getMergedCount());
+			Map<Object, IndexUpdateEvent> batch = buffer.drain();
+			Assert.assertEquals(1000, batch.size());
+			for(int i = 0; i != 1000; ++i) {
+				IndexUpdateEvent event = batch.get(Integer.valueOf(i << 8));
+				Assert.assertEquals(Type.INSERT, event.getType());
+				Assert.assertEquals("u" + i, event.getValue());
+			}
+			Assert.assertNull(batch.get(Integer.valueOf(1)));
+		}
+	}
+
+	@Test
+	public void testDrainWatermark() {
+		IndexUpdateBuffer buffer = new IndexUpdateBuffer(4);
+		for(int i = 0; i != 5; ++i) {
+			buffer.add("k" + i, "v" + i, null, Type.INSERT);
+		}
+		Assert.assertEquals(5, buffer.getLastSequence());
+		Assert.assertEquals(0, buffer.getRetiredWatermark());
+		buffer.drain();
+		Assert.assertEquals(5, buffer.getRetiredWatermark());
+		buffer.add("k0", "v0", null, Type.DELETE);
+		buffer.add("x", "x", null, Type.INSERT);
+		// watermark advances only by drain
+		Assert.assertEquals(7, buffer.getLastSequence());
+		Assert.assertEquals(5, buffer.getRetiredWatermark());
+		buffer.recycle();
+		Map<Object, IndexUpdateEvent> batch = buffer.drain();
+		Assert.assertEquals(7, buffer.getRetiredWatermark());
+		Assert.assertEquals(2, batch.size());
+		Assert.assertEquals(6, batch.get("k0").getSequenceNumber());
+		Assert.assertEquals(7, batch.get("x").getSequenceNumber());
+	}
+
+	@Test
+	public void testRecycle() {
+		IndexUpdateBuffer buffer = new IndexUpdateBuffer(4);
+		for(int i = 0; i != 100; ++i) {
+			buffer.add("k" + i, "v" + i, null, Type.INSERT);
+		}
+		List<IndexUpdateEvent> drained = new ArrayList<IndexUpdateEvent>(buffer.drain().values());
+		buffer.recycle();
+		Assert.assertEquals(0, buffer.drain().size());
+		// pooled events should not keep references
+		for(IndexUpdateEvent event: drained) {
+			Assert.assertNull(event.getKey());
+			Assert.assertNull(event.getValue());
+		}
+		buffer.recycle();
+		for(int i = 0; i != 100; ++i) {
+			buffer.add("n" + i, "w" + i, null, Type.INSERT);
+		}
+		Map<Object, IndexUpdateEvent> batch = copy(buffer.drain());
+		Assert.assertEquals(100, batch.size());
+		Assert.assertNull(batch.get("k1"));
+		Assert.assertEquals("w1", batch.get("n1").getValue());
+	}
+
+	@Test
+	public void testResize() {
+		// single stripe, table grows many times
+		IndexUpdateBuffer buffer = new IndexUpdateBuffer(1);
+		for(int round = 0; round != 2; ++round) {
+			for(int i = 0; i != 10000; ++i) {
+				buffer.add("k" + i, "v" + i, null, Type.INSERT);
+				if (i % 3 == 0) {
+					buffer.add("k" + (i / 2), "u" + (i / 2), null, Type.UPDATE);
+				}
+			}
+			Assert.assertEquals(10000, buffer.size());
+			Map<Object, IndexUpdateEvent> batch = buffer.drain();
+			Assert.assertEquals(10000, batch.size());
+			int n = 0;
+			for(Map.Entry<Object, IndexUpdateEvent> entry: batch.entrySet()) {
+				Assert.assertSame(entry.getValue(), batch.get(entry.getKey()));
+				++n;
+			}
+			Assert.assertEquals(10000, n);
+			Assert.assertEquals("u0", batch.get("k0").getValue());
+			Assert.assertEquals("v9999", batch.get("k9999").getValue());
+			buffer.recycle();
+		}
+	}
+
+	@Test
+	public void testConcurrentWriters() throws InterruptedException {
+		final IndexUpdateBuffer buffer = new IndexUpdateBuffer(4);
+		final int writers = 4;
+		final int updates = 20000;
+		final int keys = 100;
+		final CountDownLatch done = new CountDownLatch(writers);
+		for(int t = 0; t != writers; ++t) {
+			final int writer = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int i = 0; i != updates; ++i) {
+							// each writer has own keys, so latest value is known
+							buffer.add(writer + "-" + (i % keys), Integer.valueOf(i), null, i < keys ? Type.INSERT : Type.UPDATE);
+						}
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			};
+			thread.start();
+		}
+		Map<Object, Object> latest = new HashMap<Object, Object>();
+		long drained = 0;
+		long watermark = 0;
+		while(true) {
+			boolean last = done.getCount() == 0;
+			Map<Object, IndexUpdateEvent> batch = buffer.drain();
+			Assert.assertTrue(buffer.getRetiredWatermark() >= watermark);
+			for(IndexUpdateEvent event: batch.values()) {
+				// everything up to previous watermark has been drained already
+				Assert.assertTrue(event.getSequenceNumber() > watermark);
+				latest.put(event.getKey(), event.getValue());
+			}
+			watermark = buffer.getRetiredWatermark();
+			drained += batch.size();
+			buffer.recycle();
+			if (last) {
+				break;
+			}
+			Thread.sleep(1);
+		}
+		Assert.assertEquals(writers * updates, buffer.getLastSequence());
+		Assert.assertEquals(writers * updates, watermark);
+		Assert.assertEquals(0, buffer.size());
+		// each update is either drained or merged into other one
+		Assert.assertEquals(writers * updates, drained + buffer.getMergedCount());
+		Assert.assertEquals(writers * keys, latest.size());
+		for(int t = 0; t != writers; ++t) {
+			for(int k = 0; k != keys; ++k) {
+				Assert.assertEquals(Integer.valueOf(updates - keys + k), latest.get(t + "-" + k));
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class KeyDictionaryTest {
+
+	@Test
+	public void testIdReuseAfterRelease() {
+		KeyDictionary dictionary = new KeyDictionary();
+		Assert.assertEquals(0, dictionary.allocate("a"));
+		Assert.assertEquals(1, dictionary.allocate("b"));
+		Assert.assertEquals(2, dictionary.allocate("c"));
+		// repeated allocation returns same ID
+		Assert.assertEquals(1, dictionary.allocate("b"));
+		
+		dictionary.release("b");
+		Assert.assertEquals(-1, dictionary.getId("b"));
+		Assert.assertNull(dictionary.getKey(1));
+		Assert.assertEquals(2, dictionary.size());
+		
+		Assert.assertEquals(1, dictionary.allocate("d"));
+		Assert.assertEquals("d", dictionary.getKey(1));
+		Assert.assertEquals(3, dictionary.getIdLimit());
+		Assert.assertEquals(3, dictionary.size());
+		
+		// releasing unknown key is no-op
+		dictionary.release("b");
+		Assert.assertEquals(3, dictionary.size());
+		Assert.assertEquals(3, dictionary.allocate("b"));
+	}
+
+	@Test
+	public void testChurn() {
+		KeyDictionary dictionary = new KeyDictionary();
+		int live = 10;
+		// every release leaves tombstone in hash table, lookups of missing keys should still terminate
+		for(int i = 0; i != 100000; ++i) {
+			dictionary.allocate("k" + i);
+			if (i >= live) {
+				dictionary.release("k" + (i - live));
+			}
+			Assert.assertEquals(-1, dictionary.getId("missing" + i));
+		}
+		Assert.assertEquals(live, dictionary.size());
+		Assert.assertTrue(dictionary.getIdLimit() <= live + 1);
+		for(int i = 100000 - live; i != 100000; ++i) {
+			int id = dictionary.getId("k" + i);
+			Assert.assertTrue(id >= 0);
+			Assert.assertEquals("k" + i, dictionary.getKey(id));
+		}
+	}
+
+	@Test
+	public void testGrowth() {
+		KeyDictionary dictionary = new KeyDictionary();
+		int n = 50000;
+		for(int i = 0; i != n; ++i) {
+			Assert.assertEquals(i, dictionary.allocate(Integer.valueOf(i)));
+		}
+		Assert.assertEquals(n, dictionary.size());
+		Assert.assertEquals(n, dictionary.getIdLimit());
+		for(int i = 0; i < n; i += 2) {
+			dictionary.release(Integer.valueOf(i));
+		}
+		Assert.assertEquals(n / 2, dictionary.size());
+		for(int i = 0; i != n; ++i) {
+			if (i % 2 == 0) {
+				Assert.assertEquals(-1, dictionary.getId(Integer.valueOf(i)));
+				Assert.assertNull(dictionary.getKey(i));
+			}
+			else {
+				Assert.assertEquals(i, dictionary.getId(Integer.valueOf(i)));
+				Assert.assertEquals(Integer.valueOf(i), dictionary.getKey(i));
+			}
+		}
+		// freed IDs are reused before limit grows
+		for(int i = 0; i != n / 2; ++i) {
+			int id = dictionary.allocate("x" + i);
+			Assert.assertTrue(id < n);
+			Assert.assertEquals(0, id % 2);
+		}
+		Assert.assertEquals(n, dictionary.getIdLimit());
+		Assert.assertEquals(n, dictionary.size());
+	}
+
+	@Test
+	public void testRestore() {
+		KeyDictionary dictionary = KeyDictionary.restore(new Object[]{"a", null, "c", null});
+		Assert.assertEquals(2, dictionary.size());
+		Assert.assertEquals(4, dictionary.getIdLimit());
+		Assert.assertEquals(0, dictionary.getId("a"));
+		Assert.assertEquals(2, dictionary.getId("c"));
+		// lower free IDs are reused first
+		Assert.assertEquals(1, dictionary.allocate("b"));
+		Assert.assertEquals(3, dictionary.allocate("d"));
+		Assert.assertEquals(4, dictionary.allocate("e"));
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.gridkit.coherence.search.IndexUpdateEvent.Type;
+import org.gridkit.coherence.search.ngram.NGramIndexPlugin;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class QueryResultCacheTest {
+
+	private static Set<Object> keys(int n) {
+		Set<Object> keys = new HashSet<Object>();
+		for(int i = 0; i != n; ++i) {
+			keys.add("k" + i);
+		}
+		return keys;
+	}
+
+	@Test
+	public void testCapacity() {
+		QueryResultCache<String> cache = new QueryResultCache<String>(new NGramIndexPlugin(), 2, 0, false);
+		cache.put("a", keys(1), false);
+		cache.put("b", keys(1), false);
+		// touch "a", so "b" is eldest
+		Assert.assertNotNull(cache.get("a"));
+		cache.put("c", keys(1), false);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNull(cache.get("b"));
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertNotNull(cache.get("c"));
+	}
+
+	@Test
+	public void testKeyLimit() {
+		QueryResultCache<String> cache = new QueryResultCache<String>(new NGramIndexPlugin(), 100, 1000, false);
+		cache.put("a", keys(400), false);
+		cache.put("b", keys(400), false);
+		Assert.assertEquals(800, cache.getKeyCount());
+		cache.put("c", keys(400), false);
+		// eldest result is evicted to fit
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(800, cache.getKeyCount());
+		Assert.assertNull(cache.get("a"));
+		// too large to be cached
+		cache.put("d", keys(1001), false);
+		Assert.assertNull(cache.get("d"));
+		Assert.assertEquals(800, cache.getKeyCount());
+		// replacing result does not count its keys twice
+		cache.put("c", keys(100), false);
+		Assert.assertEquals(500, cache.getKeyCount());
+		Assert.assertEquals(100, cache.get("c").keys.size());
+	}
+
+	@Test
+	public void testKeyCountAfterInvalidation() {
+		QueryResultCache<String> cache = new QueryResultCache<String>(new NGramIndexPlugin(), 100, 1000, true);
+		cache.put("ABC", Collections.<Object>singleton("k1"), false);
+		cache.put("XYZ", keys(10), false);
+		Assert.assertEquals(11, cache.getKeyCount());
+		// affects only "ABC"
+		cache.invalidate(Collections.singleton(new IndexUpdateEvent("new-key", "__ABC__", null, Type.INSERT)));
+		Assert.assertNull(cache.get("ABC"));
+		Assert.assertNotNull(cache.get("XYZ"));
+		Assert.assertEquals(10, cache.getKeyCount());
+		// generation has advanced, result is stale
+		cache.invalidate(null);
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getKeyCount());
+	}
+
+	@Test
+	public void testLargeFlushDiscardsAll() {
+		QueryResultCache<String> cache = new QueryResultCache<String>(new NGramIndexPlugin(), 100, 0, true);
+		cache.put("ABC", Collections.<Object>singleton("k1"), false);
+		cache.put("XYZ", keys(10), false);
+		List<IndexUpdateEvent> events = new ArrayList<IndexUpdateEvent>();
+		for(int i = 0; i <= QueryResultCache.FINE_INVALIDATION_LIMIT / 2; ++i) {
+			events.add(new IndexUpdateEvent("new-key" + i, "___", null, Type.INSERT));
+		}
+		// none of events could affect results, but flush is too large to be checked
+		cache.invalidate(events);
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getKeyCount());
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search.ngram;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.gridkit.coherence.search.IndexEngineConfig;
+import org.gridkit.coherence.search.IndexInvocationContext;
+import org.gridkit.coherence.search.SearchFactory;
+import org.gridkit.coherence.search.SearchIndexStats;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.tangosol.net.CacheFactory;
+import com.tangosol.net.NamedCache;
+import com.tangosol.util.extractor.IdentityExtractor;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class BackgroundBuildNGramIndexTest extends BaseNGramIndexTest {
+
+	// holds background build while open, null means no gate
+	private static volatile CountDownLatch buildGate;
+	
+	public BackgroundBuildNGramIndexTest() {
+		factory = new SearchFactory<NGramIndex, Integer, String>(new GatedNGramIndexPlugin(), 3, IdentityExtractor.INSTANCE);
+	}
+	
+	@Override
+	protected NamedCache getCache() {
+		return CacheFactory.getCache("distributed-cache");
+	}
+
+	@Override
+	protected void configureEngine(IndexEngineConfig config) {
+		config.setBackgroundIndexBuildEnabled(true);
+		config.setJmxEnabled(true);
+	}
+	
+	@After
+	@Override
+	public void destroyCache() {
+		super.destroyCache();
+		// index is already dropped, blocked build should not be published
+		CountDownLatch gate = buildGate;
+		buildGate = null;
+		if (gate != null) {
+			gate.countDown();
+		}
+	}
+
+	@Test
+	public void testQueryDuringBuild() throws Exception {
+		init4096();
+		factory.removeIndex(cache);
+		buildGate = new CountDownLatch(1);
+		factory.createIndex(cache);
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> names = server.queryNames(new ObjectName(SearchIndexStats.DOMAIN + ":type=SearchIndex,cache=\"distributed-cache\",*"), null);
+		Assert.assertEquals(1, names.size());
+		ObjectName name = names.iterator().next();
+
+		// build is blocked holding index lock, query should scan cache without touching index
+		Assert.assertEquals(Boolean.FALSE, server.getAttribute(name, "IndexReady"));
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		long fallbacks = (Long)server.getAttribute(name, "ScanFallbackCount");
+		Assert.assertTrue(fallbacks > 0);
+		
+		buildGate.countDown();
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+		while(!Boolean.TRUE.equals(server.getAttribute(name, "IndexReady"))) {
+			Assert.assertTrue("Index build has not completed", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		
+		// now index should be used
+		Assert.assertEquals(4096l, server.getAttribute(name, "IndexedKeyCount"));
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		Assert.assertEquals(256, cache.keySet(factory.createFilter("CDEF")).size());
+		Assert.assertEquals(fallbacks, server.getAttribute(name, "ScanFallbackCount"));
+	}
+	
+	public static class GatedNGramIndexPlugin extends NGramIndexPlugin {
+		
+		@Override
+		public void loadIndexEntries(NGramIndex index, Map<Object, Object> documents, IndexInvocationContext context) {
+			CountDownLatch gate = buildGate;
+			if (gate != null) {
+				try {
+					gate.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			super.loadIndexEntries(index, documents, context);
+		}
+	}
+}
@@ -18,7 +18,9 @@ package org.gridkit.coherence.search.ngram;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
+import org.gridkit.coherence.search.IndexEngineConfig;
 import org.gridkit.coherence.search.SearchFactory;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -31,6 +33,7 @@ import com.tangosol.net.CacheFactory;
 import com.tangosol.net.DefaultConfigurableCacheFactory;
 import com.tangosol.net.NamedCache;
 import com.tangosol.util.extractor.IdentityExtractor;
+import com.tangosol.util.filter.AndFilter;
 
 /**
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
@@ -40,8 +43,8 @@ public abstract class BaseNGramIndexTest {
 	private int NGRAM_SIZE = 3;
     private static final String[] CHARSET1 = {"A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M", "N", "O"};
 
-	private NamedCache cache;
-	private SearchFactory<NGramIndex, Integer, String> factory = new SearchFactory<NGramIndex, Integer, String>(new NGramIndexPlugin(), NGRAM_SIZE, IdentityExtractor.INSTANCE);
+	protected NamedCache cache;
+	protected SearchFactory<NGramIndex, Integer, String> factory = new SearchFactory<NGramIndex, Integer, String>(new NGramIndexPlugin(), NGRAM_SIZE, IdentityExtractor.INSTANCE);
 	
 	@BeforeClass
 	public static void configure() {
@@ -51,9 +54,14 @@ public abstract class BaseNGramIndexTest {
 	@Before
 	public void init() {
 		cache = getCache();
+		configureEngine(factory.getEngineConfig());
 		factory.createIndex(cache);		
 	}
 	
+	protected void configureEngine(IndexEngineConfig config) {
+		// use defaults
+	}
+	
 	public void init4096() {
 
 		long objectCount = 4096;
@@ -124,4 +132,69 @@ public abstract class BaseNGramIndexTest {
 		Assert.assertEquals(1024, cache.keySet(factory.createFilter("FG")).size());
 		Assert.assertEquals(2048, cache.keySet(factory.createFilter("B")).size());
 	}
+	
+	@Test
+	public void testMixedQuery() {
+		init4096();
+		// filters are ordered by effectiveness, result must not depend on order
+		Assert.assertEquals(256, cache.keySet(new AndFilter(factory.createFilter("DEF"), factory.createFilter("B"))).size());
+		Assert.assertEquals(256, cache.keySet(new AndFilter(factory.createFilter("B"), factory.createFilter("DEF"))).size());
+		Assert.assertEquals(0, cache.keySet(new AndFilter(factory.createFilter("B"), factory.createFilter("XYZ"))).size());
+	}
+
+	@Test
+	public void testLimitedQuery() {
+		init4096();
+		Set<?> page = cache.keySet(factory.createLimitFilter("B", 50, 0));
+		Assert.assertEquals(50, page.size());
+		for(Object key: page) {
+			Assert.assertTrue(((String)cache.get(key)).contains("B"));
+		}
+		Assert.assertEquals(8, cache.keySet(factory.createLimitFilter("CDEFGHIJK", 50, 0)).size());
+	}
+
+	@Test
+	public void testDenseNGrams() {
+		init4096();
+		// every 8th document contains "ABC", every 4th contains "AB"
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("ABC")).size());
+		Assert.assertEquals(1024, cache.keySet(factory.createFilter("AB")).size());
+		Assert.assertEquals(64, cache.keySet(factory.createFilter("ABCDEF")).size());
+		// most of "ABC" postings are removed, so posting lists become sparse again
+		for(Object key: cache.keySet(factory.createFilter("ABC"))) {
+			if (!((String)key).contains("ABCDEFGHI")) {
+				cache.remove(key);
+			}
+		}
+		Assert.assertEquals(8, cache.keySet(factory.createFilter("ABC")).size());
+		Assert.assertEquals(8, cache.keySet(factory.createFilter("ABCDEF")).size());
+		Assert.assertEquals(520, cache.keySet(factory.createFilter("AB")).size());
+	}
+
+	@Test
+	public void testQueryAfterUpdate() {
+		init4096();
+		Assert.assertEquals(256, cache.keySet(factory.createFilter("CDEF")).size());
+		cache.put("ABCDEFG", "XYZ");
+		Assert.assertEquals(255, cache.keySet(factory.createFilter("CDEF")).size());
+		Assert.assertEquals(1, cache.keySet(factory.createFilter("XYZ")).size());
+		cache.put("new-key", "__CDEF__");
+		Assert.assertEquals(256, cache.keySet(factory.createFilter("CDEF")).size());
+		cache.remove("new-key");
+		Assert.assertEquals(255, cache.keySet(factory.createFilter("CDEF")).size());
+		cache.remove("ABCDEFG");
+		Assert.assertEquals(0, cache.keySet(factory.createFilter("XYZ")).size());
+	}
+
+	@Test
+	public void testIndexPopulatedCache() {
+		init4096();
+		// index is created over existing data
+		factory.removeIndex(cache);
+		factory.createIndex(cache);
+		Assert.assertEquals(256, cache.keySet(factory.createFilter("CDEF")).size());
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		cache.put("new-key", "__CDEF__");
+		Assert.assertEquals(257, cache.keySet(factory.createFilter("CDEF")).size());
+	}
 }
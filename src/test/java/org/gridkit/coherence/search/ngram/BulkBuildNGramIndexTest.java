@@ -0,0 +1,67 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search.ngram;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.gridkit.coherence.search.IndexEngineConfig;
+import org.gridkit.coherence.search.SearchIndexStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.tangosol.net.CacheFactory;
+import com.tangosol.net.NamedCache;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class BulkBuildNGramIndexTest extends BaseNGramIndexTest {
+
+	@Override
+	protected NamedCache getCache() {
+		return CacheFactory.getCache("distributed-cache");
+	}
+
+	@Override
+	protected void configureEngine(IndexEngineConfig config) {
+		config.setBulkIndexBuildEnabled(true);
+		// flush count is checked via MBean
+		config.setJmxEnabled(true);
+	}
+
+	@Test
+	public void testBulkLoadOfPopulatedCache() throws Exception {
+		init4096();
+		factory.removeIndex(cache);
+		factory.createIndex(cache);
+		
+		// all existing entries should be indexed by single bulk load before any query
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> names = server.queryNames(new ObjectName(SearchIndexStats.DOMAIN + ":type=SearchIndex,cache=\"distributed-cache\",*"), null);
+		Assert.assertEquals(1, names.size());
+		ObjectName name = names.iterator().next();
+		Assert.assertEquals(1l, server.getAttribute(name, "FlushCount"));
+		Assert.assertEquals(4096l, server.getAttribute(name, "FlushedEventCount"));
+		Assert.assertEquals(4096l, server.getAttribute(name, "IndexedKeyCount"));
+
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+	}
+}
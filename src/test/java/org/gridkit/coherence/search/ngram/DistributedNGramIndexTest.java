@@ -16,6 +16,18 @@
 
 package org.gridkit.coherence.search.ngram;
 
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.gridkit.coherence.search.IndexEngineConfig;
+import org.gridkit.coherence.search.SearchFactory.QueryFilter;
+import org.gridkit.coherence.search.SearchIndexStats;
+import org.junit.Assert;
+import org.junit.Test;
+
 import com.tangosol.net.CacheFactory;
 import com.tangosol.net.NamedCache;
 
@@ -29,5 +41,35 @@ public class DistributedNGramIndexTest extends BaseNGramIndexTest {
 		return CacheFactory.getCache("distributed-cache");
 	}
 
-	
+	@Override
+	protected void configureEngine(IndexEngineConfig config) {
+		config.setJmxEnabled(true);
+	}
+
+	@Test
+	public void testStatisticsMBean() throws Exception {
+		init4096();
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> names = server.queryNames(new ObjectName(SearchIndexStats.DOMAIN + ":type=SearchIndex,cache=\"distributed-cache\",*"), null);
+		Assert.assertEquals(1, names.size());
+		ObjectName name = names.iterator().next();
+		Assert.assertEquals(4096l, server.getAttribute(name, "IndexedKeyCount"));
+		Assert.assertTrue((Long)server.getAttribute(name, "QueryCount") > 0);
+		Assert.assertTrue((Long)server.getAttribute(name, "FlushedEventCount") > 0);
+		String[] structure = (String[]) server.getAttribute(name, "IndexStructureStats");
+		Assert.assertTrue(structure.length > 0);
+	}
+
+	@Test
+	public void testQueryRequiredSequence() {
+		init4096();
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		// update stays in queue, default flush delay is long enough
+		cache.put("new-key", "__DEF__");
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF", 0, QueryFilter.APPLIED_WATERMARK)).size());
+		Assert.assertEquals(513, cache.keySet(factory.createFilter("DEF", 0, QueryFilter.LAST_UPDATE)).size());
+		Assert.assertEquals(513, cache.keySet(factory.createFilter("DEF", 0, QueryFilter.APPLIED_WATERMARK)).size());
+	}
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gridkit.coherence.search.ngram;
+
+import org.gridkit.coherence.search.IndexEngineConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.tangosol.net.CacheFactory;
+import com.tangosol.net.NamedCache;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class ResultCacheNGramIndexTest extends BaseNGramIndexTest {
+
+	@Override
+	protected NamedCache getCache() {
+		return CacheFactory.getCache("distributed-cache");
+	}
+
+	@Override
+	protected void configureEngine(IndexEngineConfig config) {
+		config.setQueryResultCacheSize(16);
+		config.setQueryResultCacheFineInvalidation(true);
+	}
+
+	@Test
+	public void testRepeatedQueryAfterUpdate() {
+		init4096();
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		// unrelated update keeps cached result valid
+		cache.put("unrelated", "XYZ");
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+		cache.put("related", "__DEF__");
+		Assert.assertEquals(513, cache.keySet(factory.createFilter("DEF")).size());
+		cache.put("related", "XYZ");
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2011 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.coherence.search.ngram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.gridkit.coherence.search.IndexEngineConfig;
+import org.gridkit.coherence.search.SearchIndexStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.tangosol.net.CacheFactory;
+import com.tangosol.net.NamedCache;
+
+/**
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class SnapshotNGramIndexTest extends BaseNGramIndexTest {
+
+	private static File snapshotDir = createSnapshotDir();
+	
+	private static File createSnapshotDir() {
+		try {
+			File dir = File.createTempFile("ngram", "-snapshots");
+			dir.delete();
+			dir.mkdirs();
+			dir.deleteOnExit();
+			return dir;
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	protected NamedCache getCache() {
+		return CacheFactory.getCache("distributed-cache");
+	}
+
+	@Override
+	protected void configureEngine(IndexEngineConfig config) {
+		config.setSnapshotDirectory(snapshotDir.getPath());
+		// snapshot is triggered via MBean
+		config.setJmxEnabled(true);
+	}
+
+	@Test
+	public void testRestoreAfterChangesWhileDown() throws Exception {
+		init4096();
+		Assert.assertEquals(256, cache.keySet(factory.createFilter("CDEF")).size());
+		writeSnapshot();
+		Assert.assertEquals(1, listSnapshots().length);
+		
+		factory.removeIndex(cache);
+		// changed, deleted and new entries
+		cache.put("ABCDEFG", "XYZ");
+		cache.remove("CDEF");
+		cache.put("new-key", "__CDEF__");
+		factory.createIndex(cache);
+		
+		Assert.assertEquals(255, cache.keySet(factory.createFilter("CDEF")).size());
+		Assert.assertEquals(511, cache.keySet(factory.createFilter("DEF")).size());
+		Assert.assertEquals(1, cache.keySet(factory.createFilter("XYZ")).size());
+		Assert.assertEquals(31, cache.keySet(factory.createFilter("ABCDEFG")).size());
+	}
+
+	@Test
+	public void testCorruptSnapshotIsIgnored() throws Exception {
+		init4096();
+		writeSnapshot();
+		factory.removeIndex(cache);
+		for(File file: listSnapshots()) {
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write("garbage".getBytes());
+			fos.close();
+		}
+		// index is built from scratch
+		factory.createIndex(cache);
+		Assert.assertEquals(256, cache.keySet(factory.createFilter("CDEF")).size());
+		Assert.assertEquals(512, cache.keySet(factory.createFilter("DEF")).size());
+	}
+	
+	private void writeSnapshot() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> names = server.queryNames(new ObjectName(SearchIndexStats.DOMAIN + ":type=SearchIndex,cache=\"distributed-cache\",*"), null);
+		Assert.assertEquals(1, names.size());
+		server.invoke(names.iterator().next(), "writeSnapshot", null, null);
+	}
+	
+	private File[] listSnapshots() {
+		File[] files = snapshotDir.listFiles();
+		return files == null ? new File[0] : files;
+	}
+}